@@ -0,0 +1,205 @@
+package benchmarks;
+
+import com.github.jordanpottruff.jgml.Mat4;
+import com.github.jordanpottruff.jgml.Vec3;
+import common.Instance;
+import common.LightSource;
+import common.Model;
+import common.Texture;
+import world.World;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// The scenes rendered by MacroBenchmark: the sphere, cube, reflection and textured reflection scenes of Main with the
+// same cameras and colors, assets/pyramid.txt as framed by Main.testTracer, and generated stress scenes of 10^4 to 10^7
+// triangles lit by many lights. Sample counts are fixed here; the image size is chosen by the runner.
+class Catalogue {
+
+    // Triangles in one sphere of a stress scene, and the most distinct sphere meshes it builds. Larger scenes place
+    // instances of those meshes, so that 10^7 triangles fit in the heap.
+    private static final int SPHERE_TESSELLATION = 100;
+    private static final int MAX_UNIQUE_SPHERES = 100;
+    private static final int STRESS_LIGHTS = 64;
+
+    private Catalogue() {}
+
+    static List<Scene> scenes(Path assets) {
+        Vec3 white = new Vec3(0.9, 0.9, 0.9);
+        Vec3 sky = new Vec3(0.59, 0.75, 0.82);
+        Mat4 above = new Mat4.TransformBuilder().translateY(2.0).rotateX(-Math.PI/5).build();
+        List<Scene> scenes = new ArrayList<>();
+        scenes.add(new Scene("sphere", Catalogue::sphere, new Mat4.TransformBuilder().translateZ(-1).build(), 90, 4,
+                new Vec3(1, 1, 1), new Vec3(0.07, 0.07, 0.07), 0));
+        scenes.add(new Scene("cube", Catalogue::cube, new Mat4.TransformBuilder().translate(0.0, 0.0, 0.0).build(), 120,
+                4, sky, new Vec3(0.3, 0.3, 0.3), 0));
+        scenes.add(new Scene("reflection", Catalogue::reflection, above, 90, 4, sky, new Vec3(1, 1, 1), 0));
+        scenes.add(new Scene("textured-reflection", () -> texturedReflection(assets), above, 90, 4, sky,
+                new Vec3(1, 1, 1), 0));
+        scenes.add(new Scene("pyramid", () -> World.createFromFile(assets.resolve("pyramid.txt").toString()),
+                new Mat4.TransformBuilder().rotateX(-1.0708).translate(new Vec3(0.0, -3, 0.0)).build(), 100, 4,
+                new Vec3(0, 0, 0), new Vec3(0, 0, 0), 0));
+        for (int exponent = 4; exponent <= 7; exponent++) {
+            int spheres = (int) Math.pow(10, exponent - 4);
+            double extent = Math.ceil(Math.sqrt(spheres)) * 0.6 + 1;
+            Mat4 camera = new Mat4.TransformBuilder().translateZ(extent * 1.2).build();
+            scenes.add(new Scene("stress-1e" + exponent, () -> sphereField(spheres), camera, 90, 1, white.scale(0.1),
+                    new Vec3(0.1, 0.1, 0.1), 4));
+        }
+        return scenes;
+    }
+
+    private static World sphere() {
+        Model.ModelConfig config = new Model.ModelConfig(new Vec3(1.0, 0.0, 0.0), 1.0, 0.0, 10, 0.8, 0.1);
+        Set<Model> models = new HashSet<>();
+        models.add(Model.createSphere(new Vec3(0, 0, -5), 0.5, config));
+        Set<LightSource> lights = new HashSet<>();
+        lights.add(new LightSource(new Vec3(-10, 1.0, 2.0), new Vec3(1.0, 1.0, 1.0), 10));
+        return new World(models, lights);
+    }
+
+    private static World cube() {
+        Model.ModelConfig config = new Model.ModelConfig(new Vec3(1.0, 0.0, 0.0), 1.0, 0.0, 50, 0.8, 0.1);
+        Set<Model> models = new HashSet<>();
+        for (int x = -4; x <= 4; x += 2) {
+            models.add(Model.createCube(new Vec3(x, -1, -3), 1.0, config));
+        }
+        models.add(Model.createRectPrism(-100, 100, -10, -1.5, -30, 30, new Model.ModelConfig(new Vec3(0.5, 0.5, 0.5))));
+        Set<LightSource> lights = new HashSet<>();
+        lights.add(new LightSource(new Vec3(-5.0, 5.0, -1.0), new Vec3(1.0, 1.0, 1.0), 10));
+        return new World(models, lights);
+    }
+
+    private static World reflection() {
+        Vec3 white = new Vec3(0.9, 0.9, 0.9);
+        Model whiteCube = Model.createCube(new Vec3(0, 0, 0), 1.0, new Model.ModelConfig(white, 1, .25, 10, 0.8, 0.1));
+        Model blackCube = Model.createCube(new Vec3(0, 0, 0), 1.0,
+                new Model.ModelConfig(new Vec3(0.2, 0.2, 0.2), 1, .25, 10, 0.8, 0.1));
+        Set<Instance> instances = new HashSet<>();
+        for (int x = 0; x < 8; x++) {
+            for (int z = 0; z < 8; z++) {
+                Model cube = (x + z) % 2 == 0 ? whiteCube : blackCube;
+                instances.add(new Instance(cube, new Mat4.TransformBuilder().translate(x + 0.5 - 4, -1, z + 0.5 - 8).build()));
+            }
+        }
+        Set<Model> models = new HashSet<>();
+        models.add(Model.createSphere(new Vec3(0, 0.5, -4), 0.5,
+                new Model.ModelConfig(new Vec3(0.828, 0.684, 0.216), 1.0, 0.15, 30, 0.8, 0.1)));
+        Set<LightSource> lights = new HashSet<>();
+        lights.add(new LightSource(new Vec3(-4, 5, 0), white, 10));
+        return new World(models, instances, lights);
+    }
+
+    private static World texturedReflection(Path assets) {
+        Vec3 white = new Vec3(0.9, 0.9, 0.9);
+        Texture texture = new Texture(assets.resolve("textures/marble-2.jpg").toString());
+        Set<Model> models = new HashSet<>();
+        models.add(Model.createCube(new Vec3(0, -4.5, -4), 8.0,
+                new Model.ModelConfig(white, 1, .1, 100, 0.6, 0.2, texture, 1.0)));
+        models.add(Model.createSphere(new Vec3(0, 0.5, -4), 0.5,
+                new Model.ModelConfig(new Vec3(0.828, 0.684, 0.216), 1.0, 0.15, 30, 0.8, 0.1)));
+        models.add(Model.createSphere(new Vec3(1.5, 0.3, -2.5), 0.4,
+                new Model.ModelConfig(new Vec3(0.769, 0.792, 0.808), 1.0, 0.15, 30, 0.8, 0.1)));
+        models.add(Model.createSphere(new Vec3(-2.0, 0.4, -2.5), 0.3,
+                new Model.ModelConfig(new Vec3(0.255, 0.255, 0.255), 1.0, 0.15, 30, 0.8, 0.1)));
+        Set<LightSource> lights = new HashSet<>();
+        lights.add(new LightSource(new Vec3(-4, 5, 0), white.scale(1.5), 10));
+        return new World(models, lights);
+    }
+
+    // A square grid of tessellated spheres in the plane z = 0, in front of a backdrop, under a grid of lights. Up to
+    // MAX_UNIQUE_SPHERES spheres have meshes of their own; the rest are instances of those.
+    private static World sphereField(int spheres) {
+        int side = (int) Math.ceil(Math.sqrt(spheres));
+        double extent = side * 0.6 + 1;
+        List<Model> meshes = new ArrayList<>();
+        for (int i = 0; i < Math.min(spheres, MAX_UNIQUE_SPHERES); i++) {
+            Vec3 color = new Vec3((i % 3) / 2.0, (i % 5) / 4.0, (i % 7) / 6.0);
+            meshes.add(Model.createSphere(new Vec3(0, 0, 0), 0.5, new Model.ModelConfig(color, 1.0, 0.2, 30, 0.8, 0.1),
+                    SPHERE_TESSELLATION));
+        }
+        Set<Instance> instances = new HashSet<>();
+        for (int i = 0; i < spheres; i++) {
+            double x = (i % side - (side - 1) / 2.0) * 1.2;
+            double y = (i / side - (side - 1) / 2.0) * 1.2;
+            instances.add(new Instance(meshes.get(i % meshes.size()), new Mat4.TransformBuilder().translate(x, y, 0).build()));
+        }
+        Set<Model> models = new HashSet<>();
+        models.add(Model.createRectPrism(-extent, extent, -extent, extent, -2, -1.5,
+                new Model.ModelConfig(new Vec3(0.8, 0.8, 0.8))));
+        Set<LightSource> lights = new HashSet<>();
+        int lightSide = (int) Math.sqrt(STRESS_LIGHTS);
+        Vec3 lightColor = new Vec3(1, 1, 1).scale(2.0 / STRESS_LIGHTS);
+        for (int i = 0; i < STRESS_LIGHTS; i++) {
+            double x = ((i % lightSide) / (lightSide - 1.0) - 0.5) * 2 * extent;
+            double y = ((i / lightSide) / (lightSide - 1.0) - 0.5) * 2 * extent;
+            lights.add(new LightSource(new Vec3(x, y, 4), lightColor, 10));
+        }
+        return new World(models, instances, lights);
+    }
+
+    // Builds a scene's world; may read files.
+    interface WorldSource {
+        World create() throws Exception;
+    }
+
+    static class Scene {
+
+        private final String name;
+        private final WorldSource source;
+        private final Mat4 camera;
+        private final double fov;
+        private final int samples;
+        private final Vec3 skyColor;
+        private final Vec3 ambientColor;
+        private final int lightSamples;
+
+        Scene(String name, WorldSource source, Mat4 camera, double fov, int samples, Vec3 skyColor, Vec3 ambientColor,
+              int lightSamples) {
+            this.name = name;
+            this.source = source;
+            this.camera = camera;
+            this.fov = fov;
+            this.samples = samples;
+            this.skyColor = skyColor;
+            this.ambientColor = ambientColor;
+            this.lightSamples = lightSamples;
+        }
+
+        String name() {
+            return this.name;
+        }
+
+        World createWorld() throws Exception {
+            return source.create();
+        }
+
+        Mat4 camera() {
+            return this.camera;
+        }
+
+        double fov() {
+            return this.fov;
+        }
+
+        int samples() {
+            return this.samples;
+        }
+
+        Vec3 skyColor() {
+            return this.skyColor;
+        }
+
+        Vec3 ambientColor() {
+            return this.ambientColor;
+        }
+
+        // Lights sampled per shading point, or 0 to shade with every light.
+        int lightSamples() {
+            return this.lightSamples;
+        }
+    }
+}
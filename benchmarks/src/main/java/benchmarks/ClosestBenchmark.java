@@ -0,0 +1,74 @@
+package benchmarks;
+
+import com.github.jordanpottruff.jgml.Vec3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tracer.Hit;
+import tracer.Intersection;
+import tracer.Ray;
+import tracer.TwoLevelBVH;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Closest-hit queries against a grid of spheres, small and large. closest is the query Tracer.getClosest makes for
+// every camera and reflected ray, including the Intersection it builds; closestHit is the same traversal into a reused
+// hit record. Rays fan out from the origin over the grid, so most of them hit a sphere.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class ClosestBenchmark {
+
+    private static final double EPSILON = .0001;
+    private static final int RAY_COUNT = 4096;
+
+    @Param({"16", "1024"})
+    public int modelCount;
+
+    private TwoLevelBVH bvh;
+    private final Ray[] rays = new Ray[RAY_COUNT];
+    private final Hit hit = new Hit();
+    private int next;
+
+    @Setup
+    public void setup() {
+        bvh = TwoLevelBVH.build(Scenes.spheres(modelCount, 24));
+        double extent = Math.ceil(Math.sqrt(modelCount)) / 2;
+        Random random = new Random(1);
+        for (int i = 0; i < RAY_COUNT; i++) {
+            Vec3 target = new Vec3((2 * random.nextDouble() - 1) * extent, (2 * random.nextDouble() - 1) * extent, -10);
+            rays[i] = new Ray(new Vec3(0, 0, 0), target.normalize());
+        }
+    }
+
+    @Benchmark
+    public Optional<Intersection> closest() {
+        return bvh.closest(nextRay(), -1, EPSILON);
+    }
+
+    @Benchmark
+    public boolean closestHit() {
+        Ray ray = nextRay();
+        Vec3 o = ray.origin();
+        Vec3 d = ray.direction();
+        return bvh.closest(o.x(), o.y(), o.z(), d.x(), d.y(), d.z(), -1, EPSILON, hit);
+    }
+
+    private Ray nextRay() {
+        next = (next + 1) & (RAY_COUNT - 1);
+        return rays[next];
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import com.github.jordanpottruff.jgml.Vec3;
+import common.Model;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tracer.Hit;
+import tracer.Intersection;
+import tracer.Ray;
+import tracer.Triangles;
+import world.CompiledWorld;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// A single ray/triangle test, through the allocation-free Triangles.intersect and through Ray.getIntersection, which
+// builds an Intersection. The hit ray meets the face head-on at its centroid; the miss ray runs parallel to it beside
+// the face, so it is rejected by the barycentric test rather than the first determinant check.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class IntersectionBenchmark {
+
+    private static final double EPSILON = .0001;
+    private static final int FACE = 0;
+
+    private CompiledWorld cube;
+    private double[] triangles;
+    private final Hit hit = new Hit();
+    private Ray hitRay;
+    private Ray missRay;
+
+    @Setup
+    public void setup() {
+        cube = CompiledWorld.compile(Model.createCube(new Vec3(0, 0, 0), 2.0, new Model.ModelConfig(new Vec3(1, 1, 1))));
+        triangles = cube.triangles();
+        int t = FACE * CompiledWorld.TRIANGLE_STRIDE;
+        Vec3 v1 = new Vec3(triangles[t], triangles[t + 1], triangles[t + 2]);
+        Vec3 e1 = new Vec3(triangles[t + 3], triangles[t + 4], triangles[t + 5]);
+        Vec3 e2 = new Vec3(triangles[t + 6], triangles[t + 7], triangles[t + 8]);
+        double[] faceNormals = cube.faceNormals();
+        Vec3 normal = new Vec3(faceNormals[FACE*3], faceNormals[FACE*3 + 1], faceNormals[FACE*3 + 2]);
+        Vec3 centroid = v1.add(e1.add(e2).scale(1.0 / 3));
+        hitRay = new Ray(centroid.add(normal.scale(5)), normal.scale(-1));
+        missRay = new Ray(centroid.add(normal.scale(5)).add(e1.add(e2).scale(2)), normal.scale(-1));
+    }
+
+    @Benchmark
+    public boolean triangleHit() {
+        return test(hitRay);
+    }
+
+    @Benchmark
+    public boolean triangleMiss() {
+        return test(missRay);
+    }
+
+    @Benchmark
+    public Optional<Intersection> rayHit() {
+        return hitRay.getIntersection(cube, FACE, EPSILON);
+    }
+
+    @Benchmark
+    public Optional<Intersection> rayMiss() {
+        return missRay.getIntersection(cube, FACE, EPSILON);
+    }
+
+    private boolean test(Ray ray) {
+        hit.reset();
+        Vec3 o = ray.origin();
+        Vec3 d = ray.direction();
+        return Triangles.intersect(triangles, FACE, o.x(), o.y(), o.z(), d.x(), d.y(), d.z(), EPSILON, hit);
+    }
+}
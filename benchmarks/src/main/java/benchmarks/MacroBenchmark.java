@@ -0,0 +1,194 @@
+package benchmarks;
+
+import common.Instance;
+import common.Model;
+import renderer.Renderer;
+import tracer.Tracer;
+import tracer.TracerConfig;
+import world.World;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Renders the scenes of the Catalogue at a fixed seed and image size and reports whole-frame numbers for each: median
+// wall time of a trace (which includes compiling the world and building its hierarchy), rays traced per second
+// (camera, reflected and shadow rays), peak heap and garbage collector time. Results are written to report.json and
+// report.csv in the output directory; given a baseline report, each scene is compared with it and the exit status is 2
+// if any regressed.
+//
+// Usage: MacroBenchmark [--scenes <regex>] [--width <w>] [--height <h>] [--seed <s>] [--warmup <n>] [--runs <n>]
+//                       [--threads <n>] [--out <dir>] [--baseline <report.csv>] [--tolerance <percent>]
+public class MacroBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        Pattern filter = Pattern.compile(options.getOrDefault("scenes", ".*"));
+        int width = Integer.parseInt(options.getOrDefault("width", "640"));
+        int height = Integer.parseInt(options.getOrDefault("height", "360"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "1"));
+        int runs = Integer.parseInt(options.getOrDefault("runs", "3"));
+        int threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        Path out = Path.of(options.getOrDefault("out", "benchmark-results"));
+        double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "10")) / 100;
+        Path assets = Path.of(System.getProperty("benchmark.assets", "assets"));
+        if (runs < 1 || warmup < 0) {
+            throw new IllegalArgumentException("Need at least one run and a non-negative number of warmup runs.");
+        }
+
+        List<Report.Result> results = new ArrayList<>();
+        for (Catalogue.Scene scene : Catalogue.scenes(assets)) {
+            if (filter.matcher(scene.name()).matches()) {
+                Report.Result result = run(scene, width, height, seed, warmup, runs, threads);
+                System.out.println(String.format(Locale.ROOT,
+                        "%-20s %9d tris  %9.1f ms  %12.0f rays/s  %8.1f MB  %7.1f ms gc",
+                        result.scene, result.triangles, result.wallMillis, result.raysPerSecond(), result.peakHeapMB,
+                        result.gcMillis));
+                results.add(result);
+            }
+        }
+
+        Files.createDirectories(out);
+        Report.writeCsv(results, out.resolve("report.csv"));
+        Report.writeJson(results, environment(threads), out.resolve("report.json"));
+        System.out.println("Wrote " + out.resolve("report.json") + " and " + out.resolve("report.csv"));
+
+        if (options.containsKey("baseline")) {
+            List<String> regressions = new ArrayList<>();
+            Path baseline = Path.of(options.get("baseline"));
+            System.out.println("Compared with " + baseline + ":");
+            for (String line : Report.compare(results, Report.readCsv(baseline), tolerance, regressions)) {
+                System.out.println("  " + line);
+            }
+            if (!regressions.isEmpty()) {
+                System.out.println("Regressed: " + String.join(", ", regressions));
+                System.exit(2);
+            }
+        }
+    }
+
+    private static Report.Result run(Catalogue.Scene scene, int width, int height, long seed, int warmup, int runs,
+                                     int threads) throws Exception {
+        long setupStart = System.nanoTime();
+        World world = scene.createWorld();
+        double setupMillis = (System.nanoTime() - setupStart) / 1e6;
+        TracerConfig config = new TracerConfig.Builder()
+                .seed(seed)
+                .parallelism(threads)
+                .lightSamples(scene.lightSamples())
+                .build();
+        Tracer tracer = new Tracer(world, width, height, scene.skyColor(), scene.ambientColor(), config);
+
+        for (int i = 0; i < warmup; i++) {
+            tracer.trace(scene.camera(), scene.fov(), scene.samples());
+        }
+        double[] wall = new double[runs];
+        double peakHeap = 0;
+        long rays = 0;
+        long shadowRays = 0;
+        long gcMillis = 0;
+        long gcCount = 0;
+        for (int i = 0; i < runs; i++) {
+            System.gc();
+            resetPeakHeap();
+            long gcMillisBefore = gcMillis();
+            long gcCountBefore = gcCount();
+            long start = System.nanoTime();
+            Renderer renderer = tracer.trace(scene.camera(), scene.fov(), scene.samples());
+            wall[i] = (System.nanoTime() - start) / 1e6;
+            gcMillis += gcMillis() - gcMillisBefore;
+            gcCount += gcCount() - gcCountBefore;
+            peakHeap = Math.max(peakHeap, peakHeap());
+            shadowRays = tracer.shadowRays();
+            rays = Arrays.stream(tracer.raysPerDepth()).sum() + shadowRays;
+            if (renderer == null) {
+                throw new IllegalStateException("No image for " + scene.name());
+            }
+        }
+        Arrays.sort(wall);
+        double median = runs % 2 == 1 ? wall[runs / 2] : (wall[runs / 2 - 1] + wall[runs / 2]) / 2;
+        return new Report.Result(scene.name(), width, height, scene.samples(), seed, runs, triangles(world), setupMillis,
+                median, wall[0], rays, shadowRays, peakHeap / (1 << 20), (double) gcMillis / runs, gcCount / runs);
+    }
+
+    // Triangles in the world, counting each instance of a model; analytic models count as none.
+    private static long triangles(World world) {
+        long count = 0;
+        for (Model model : world.models()) {
+            count += model.isAnalytic() ? 0 : model.mesh().triangleCount();
+        }
+        for (Instance instance : world.instances()) {
+            count += instance.model().isAnalytic() ? 0 : instance.model().mesh().triangleCount();
+        }
+        return count;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static Map<String, String> environment(int threads) {
+        Map<String, String> environment = new LinkedHashMap<>();
+        environment.put("java", System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+        environment.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        environment.put("processors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        environment.put("threads", String.valueOf(threads));
+        environment.put("max_heap_mb", String.valueOf(Runtime.getRuntime().maxMemory() >> 20));
+        environment.put("gc", ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .map(GarbageCollectorMXBean::getName).reduce((a, b) -> a + ", " + b).orElse(""));
+        return environment;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected --option value pairs, got: " + String.join(" ", args));
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}
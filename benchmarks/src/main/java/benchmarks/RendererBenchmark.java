@@ -0,0 +1,72 @@
+package benchmarks;
+
+import com.github.jordanpottruff.jgml.Vec3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import renderer.Renderer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Writing a whole 640x360 frame into a Renderer pixel by pixel, and encoding it to a PNG file.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class RendererBenchmark {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+
+    private Renderer renderer;
+    private Vec3[] colors;
+    private Path output;
+
+    @Setup
+    public void setup() throws IOException {
+        renderer = new Renderer(WIDTH, HEIGHT);
+        colors = new Vec3[WIDTH];
+        for (int x = 0; x < WIDTH; x++) {
+            colors[x] = new Vec3((double) x / WIDTH, 0.5, 1 - (double) x / WIDTH);
+        }
+        fill();
+        output = Files.createTempFile("renderer-benchmark", ".png");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public Renderer setColor() {
+        fill();
+        return renderer;
+    }
+
+    @Benchmark
+    public void savePNG() {
+        renderer.savePNG(output.toString());
+    }
+
+    private void fill() {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                renderer.setColor(x, y, colors[x]);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// The results of a MacroBenchmark run, written as JSON and as CSV. The CSV form is also the baseline format: a report
+// from an earlier run is read back and each scene compared with its entry there.
+class Report {
+
+    private static final String HEADER =
+            "scene,width,height,samples,seed,runs,triangles,setup_ms,wall_ms,min_wall_ms,rays,shadow_rays,rays_per_sec,peak_heap_mb,gc_ms,gc_count";
+
+    private Report() {}
+
+    static void writeCsv(List<Result> results, Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println(HEADER);
+            for (Result r : results) {
+                out.println(String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%d,%d,%.1f,%.1f,%.1f,%d,%d,%.0f,%.1f,%.1f,%d",
+                        r.scene, r.width, r.height, r.samples, r.seed, r.runs, r.triangles, r.setupMillis,
+                        r.wallMillis, r.minWallMillis, r.rays, r.shadowRays, r.raysPerSecond(), r.peakHeapMB, r.gcMillis,
+                        r.gcCount));
+            }
+        }
+    }
+
+    static void writeJson(List<Result> results, Map<String, String> environment, Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("{");
+            out.println("  \"environment\": {");
+            int e = 0;
+            for (Map.Entry<String, String> entry : environment.entrySet()) {
+                out.printf("    \"%s\": \"%s\"%s%n", entry.getKey(), escape(entry.getValue()),
+                        ++e < environment.size() ? "," : "");
+            }
+            out.println("  },");
+            out.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                out.println(String.format(Locale.ROOT, "    {\"scene\": \"%s\", \"width\": %d, \"height\": %d, "
+                                + "\"samples\": %d, \"seed\": %d, \"runs\": %d, \"triangles\": %d, \"setup_ms\": %.1f, "
+                                + "\"wall_ms\": %.1f, \"min_wall_ms\": %.1f, \"rays\": %d, \"shadow_rays\": %d, "
+                                + "\"rays_per_sec\": %.0f, "
+                                + "\"peak_heap_mb\": %.1f, \"gc_ms\": %.1f, \"gc_count\": %d}%s",
+                        escape(r.scene), r.width, r.height, r.samples, r.seed, r.runs, r.triangles, r.setupMillis,
+                        r.wallMillis, r.minWallMillis, r.rays, r.shadowRays, r.raysPerSecond(), r.peakHeapMB, r.gcMillis, r.gcCount,
+                        i + 1 < results.size() ? "," : ""));
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+    }
+
+    // Reads a CSV report, keyed by scene name.
+    static Map<String, Result> readCsv(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+            throw new IOException("Not a benchmark report: " + file);
+        }
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] f = line.split(",");
+            if (f.length != 16) {
+                throw new IOException("Malformed report line in " + file + ": " + line);
+            }
+            Result r = new Result(f[0], Integer.parseInt(f[1]), Integer.parseInt(f[2]), Integer.parseInt(f[3]),
+                    Long.parseLong(f[4]), Integer.parseInt(f[5]), Long.parseLong(f[6]), Double.parseDouble(f[7]),
+                    Double.parseDouble(f[8]), Double.parseDouble(f[9]), Long.parseLong(f[10]), Long.parseLong(f[11]),
+                    Double.parseDouble(f[13]), Double.parseDouble(f[14]), Long.parseLong(f[15]));
+            results.put(r.scene, r);
+        }
+        return results;
+    }
+
+    // Compares each result with the baseline entry for its scene and returns one line per finding. A scene regresses
+    // when its median wall time or peak heap grows by more than the tolerance, a fraction. Scenes rendered with other
+    // settings than their baseline are reported as not comparable, and a different ray count at equal settings means
+    // the renderer now traces different paths, so the image has changed.
+    static List<String> compare(List<Result> results, Map<String, Result> baseline, double tolerance,
+                                List<String> regressions) {
+        List<String> lines = new ArrayList<>();
+        for (Result r : results) {
+            Result b = baseline.get(r.scene);
+            if (b == null) {
+                lines.add(String.format("%-20s no baseline", r.scene));
+                continue;
+            }
+            if (r.width != b.width || r.height != b.height || r.samples != b.samples || r.seed != b.seed
+                    || r.triangles != b.triangles) {
+                lines.add(String.format("%-20s not comparable: rendered with other settings than the baseline", r.scene));
+                continue;
+            }
+            double wall = change(r.wallMillis, b.wallMillis);
+            double heap = change(r.peakHeapMB, b.peakHeapMB);
+            boolean regressed = wall > tolerance || heap > tolerance;
+            lines.add(String.format(Locale.ROOT, "%-20s wall %+6.1f%%  rays/s %+6.1f%%  heap %+6.1f%%  gc %+8.1f ms%s",
+                    r.scene, 100 * wall, 100 * change(r.raysPerSecond(), b.raysPerSecond()), 100 * heap,
+                    r.gcMillis - b.gcMillis, regressed ? "  REGRESSION" : ""));
+            if (regressed) {
+                regressions.add(r.scene);
+            }
+            if (r.rays != b.rays) {
+                lines.add(String.format("%-20s ray count changed from %d to %d", r.scene, b.rays, r.rays));
+            }
+        }
+        return lines;
+    }
+
+    private static double change(double value, double base) {
+        return base == 0 ? 0 : value / base - 1;
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    static class Result {
+
+        final String scene;
+        final int width;
+        final int height;
+        final int samples;
+        final long seed;
+        final int runs;
+        final long triangles;
+        final double setupMillis;
+        // Median and fastest wall time of the measured runs.
+        final double wallMillis;
+        final double minWallMillis;
+        // Rays traced in one run, counting camera, reflected and shadow rays, and the shadow rays among them.
+        final long rays;
+        final long shadowRays;
+        // The most heap in use during any run, as the sum of each heap pool's peak.
+        final double peakHeapMB;
+        // Collector time and collections per run.
+        final double gcMillis;
+        final long gcCount;
+
+        Result(String scene, int width, int height, int samples, long seed, int runs, long triangles, double setupMillis,
+               double wallMillis, double minWallMillis, long rays, long shadowRays, double peakHeapMB, double gcMillis,
+               long gcCount) {
+            this.scene = scene;
+            this.width = width;
+            this.height = height;
+            this.samples = samples;
+            this.seed = seed;
+            this.runs = runs;
+            this.triangles = triangles;
+            this.setupMillis = setupMillis;
+            this.wallMillis = wallMillis;
+            this.minWallMillis = minWallMillis;
+            this.rays = rays;
+            this.shadowRays = shadowRays;
+            this.peakHeapMB = peakHeapMB;
+            this.gcMillis = gcMillis;
+            this.gcCount = gcCount;
+        }
+
+        double raysPerSecond() {
+            return wallMillis == 0 ? 0 : rays / (wallMillis / 1000);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tracer.Sampler;
+
+import java.util.concurrent.TimeUnit;
+
+// Sample generation for one pixel: the list-building multi-jitter of the original sampler, the array-filling
+// multi-jittered and Halton patterns the tracer uses, and the per-point random numbers used for light selection and
+// Russian roulette. Each call moves to the next pixel of a 1024-wide row so that patterns are not reused.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class SamplerBenchmark {
+
+    @Param({"4", "16"})
+    public int samples;
+
+    private final Sampler sampler = new Sampler(1);
+    private double[] points;
+    private int pixel;
+
+    @Setup
+    public void setup() {
+        points = new double[2 * samples];
+    }
+
+    @Benchmark
+    public Sampler.PixelSample multiJitterList() {
+        int p = nextPixel();
+        return sampler.multiJitterPixel(p, 0, samples);
+    }
+
+    @Benchmark
+    public double[] multiJitter() {
+        int p = nextPixel();
+        sampler.multiJitterPixel(p, 0, samples, 0, points);
+        return points;
+    }
+
+    @Benchmark
+    public double[] halton() {
+        int p = nextPixel();
+        sampler.haltonPixel(p, 0, p & 15, points);
+        return points;
+    }
+
+    @Benchmark
+    public double random() {
+        int p = nextPixel();
+        return sampler.random(p * 0.25, 1.5, -2.0, p & 3);
+    }
+
+    private int nextPixel() {
+        pixel = (pixel + 1) & 1023;
+        return pixel;
+    }
+}
@@ -0,0 +1,31 @@
+package benchmarks;
+
+import com.github.jordanpottruff.jgml.Vec3;
+import common.LightSource;
+import common.Model;
+import world.World;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// Procedural scenes shared by the benchmarks, so that results do not depend on files outside the repository.
+class Scenes {
+
+    private Scenes() {}
+
+    // A square grid of count spheres of the given tessellation in the plane z = -10, centred on the z axis, lit by one
+    // light behind the camera.
+    static World spheres(int count, int tessellation) {
+        int side = (int) Math.ceil(Math.sqrt(count));
+        Set<Model> models = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            double x = i % side - (side - 1) / 2.0;
+            double y = i / side - (side - 1) / 2.0;
+            Vec3 color = new Vec3((i % 3) / 2.0, (i % 5) / 4.0, (i % 7) / 6.0);
+            models.add(Model.createSphere(new Vec3(x, y, -10), 0.4, new Model.ModelConfig(color), tessellation));
+        }
+        Set<LightSource> lights = new HashSet<>();
+        lights.add(new LightSource(new Vec3(0, side, 5), new Vec3(1, 1, 1), 10));
+        return new World(models, lights);
+    }
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import com.github.jordanpottruff.jgml.Vec3;
+import common.Texture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Texture lookups at scattered coordinates, at full resolution and from a filtered mip level. The texture is read from
+// the assets directory, which is taken relative to the working directory unless -Dbenchmark.assets is given.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class TextureBenchmark {
+
+    private static final int COORDINATE_COUNT = 4096;
+
+    private Texture texture;
+    private final double[] coordinates = new double[2 * COORDINATE_COUNT];
+    private int next;
+
+    @Setup
+    public void setup() {
+        Path assets = Path.of(System.getProperty("benchmark.assets", "assets"));
+        texture = new Texture(assets.resolve("textures/marble-2.jpg").toString());
+        Random random = new Random(1);
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public Vec3 getColor() {
+        int i = nextCoordinate();
+        return texture.getColor(coordinates[i], coordinates[i + 1]);
+    }
+
+    @Benchmark
+    public Vec3 getColorFiltered() {
+        int i = nextCoordinate();
+        return texture.getColor(coordinates[i], coordinates[i + 1], 2.5);
+    }
+
+    private int nextCoordinate() {
+        next = (next + 1) & (COORDINATE_COUNT - 1);
+        return next * 2;
+    }
+}
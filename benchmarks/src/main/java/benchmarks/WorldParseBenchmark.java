@@ -0,0 +1,62 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import world.World;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Parsing a world file with World.createFromFile. The file is generated for each face count: one model of faces laid
+// out on a strip, in the format of assets/pyramid.txt, with one light.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class WorldParseBenchmark {
+
+    @Param({"100", "100000"})
+    public int faceCount;
+
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("world-benchmark", ".txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("WORLD\n    MODEL\n");
+            for (int face = 0; face < faceCount; face++) {
+                writer.write("        FACE\n");
+                writer.write(String.format("        [%d, 0, 0], [0, 0, 1], [1, 0.5, 0], 1, 0;%n", face));
+                writer.write(String.format("        [%d, 0, 0], [0, 0, 1], [1, 0.5, 0], 1, 0;%n", face + 1));
+                writer.write(String.format("        [%d, 1, 0], [0, 0, 1], [1, 0.5, 0], 1, 0;%n", face));
+            }
+            writer.write("    END_MODEL\n    LIGHT\n        [0, 10, 2], [1, 1, 1], 10;\n    END_LIGHT\nEND_WORLD\n");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public World createFromFile() throws Exception {
+        return World.createFromFile(file.toString());
+    }
+}
@@ -1,6 +1,7 @@
 import com.github.jordanpottruff.jgml.Mat4;
 import com.github.jordanpottruff.jgml.Vec2;
 import com.github.jordanpottruff.jgml.Vec3;
+import common.Instance;
 import common.LightSource;
 import common.Model;
 import common.Texture;
@@ -8,7 +9,9 @@ import renderer.Renderer;
 import tracer.Sampler;
 import tracer.Tracer;
 import world.World;
+import world.WorldParser;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -27,8 +30,17 @@ public class Main {
         traceTexturedReflection("out\\images\\reflection-textured.png");
     }
 
+    // Parses a world file and reports how long it took.
+    public static World loadWorld(String filename) throws Exception {
+        try (WorldParser parser = new WorldParser(Path.of(filename))) {
+            World world = parser.parse();
+            System.out.println("Loaded " + filename + ": " + parser.stats());
+            return world;
+        }
+    }
+
     public static void printWorld(String filename) throws Exception {
-        World world = World.createFromFile(filename);
+        World world = loadWorld(filename);
 
         List<Model> models = new ArrayList<>(world.models());
         List<LightSource> lights = new ArrayList<>(world.lights());
@@ -67,7 +79,7 @@ public class Main {
     }
 
     public static void testTracer(String worldFilename, String imageFilename) throws Exception {
-        World world = World.createFromFile(worldFilename);
+        World world = loadWorld(worldFilename);
         Tracer tracer = new Tracer(world, 1920, 1080);
 
         Mat4 transformation = new Mat4.TransformBuilder().rotateX(-1.0708).translate(new Vec3(0.0, -3, 0.0)).build();
@@ -82,7 +94,7 @@ public class Main {
         double opacity = 1.0;
         double reflectance = 0.0;
         Model.ModelConfig config = new Model.ModelConfig(red, opacity, reflectance, 10, 0.8, 0.1);
-        Model sphere = Model.createSphere(new Vec3(0, 0, -5), 0.5, config, 24);
+        Model sphere = Model.createSphere(new Vec3(0, 0, -5), 0.5, config);
         //Model moon = Model.createSphere(new Vec3(1.0, 1.0, -3.5), 0.1, green, opacity, reflectance, 24);
         LightSource light = new LightSource(new Vec3(-10, 1.0, 2.0), new Vec3(1.0, 1.0, 1.0), 10);
 
@@ -138,27 +150,27 @@ public class Main {
         Vec3 gold = new Vec3(0.828, 0.684, 0.216);
 
         HashSet<Model> models = new HashSet<>();
+        HashSet<Instance> instances = new HashSet<>();
         final int size = 8;
         final double xOffset = -size/2.0;
         final double yOffset = -1;
         final double zOffset = -size;
+        // Every tile is an instance of one of two shared cubes.
+        Model whiteCube = Model.createCube(new Vec3(0, 0, 0), 1.0, new Model.ModelConfig(white, 1, .25, 10, 0.8, 0.1));
+        Model blackCube = Model.createCube(new Vec3(0, 0, 0), 1.0, new Model.ModelConfig(black, 1, .25, 10, 0.8, 0.1));
         for(double x=0; x<size; x++) {
             for(double z=0; z<size; z++) {
-                Model.ModelConfig config;
-                if ((x+z) % 2 == 0) {
-                    config = new Model.ModelConfig(white, 1, .25, 10, 0.8, 0.1);
-                } else {
-                    config = new Model.ModelConfig(black, 1, .25, 10, 0.8, 0.1);
-                }
-                models.add(Model.createCube(new Vec3(x+0.5+xOffset, yOffset, z+0.5+zOffset), 1.0, config));
+                Model cube = (x+z) % 2 == 0 ? whiteCube : blackCube;
+                Mat4 placement = new Mat4.TransformBuilder().translate(x+0.5+xOffset, yOffset, z+0.5+zOffset).build();
+                instances.add(new Instance(cube, placement));
             }
         }
         Model.ModelConfig sphereConfig = new Model.ModelConfig(gold, 1.0, 0.15, 30, 0.8, 0.1);
-        models.add(Model.createSphere(new Vec3(0, 0.5, -4), 0.5, sphereConfig, 48));
+        models.add(Model.createSphere(new Vec3(0, 0.5, -4), 0.5, sphereConfig));
 
         HashSet<LightSource> lights = new HashSet<>();
         lights.add(new LightSource(new Vec3(-4, 5, 0), white.scale(1.0), 10));
-        World world = new World(models, lights);
+        World world = new World(models, instances, lights);
 
         Tracer tracer = new Tracer(world, 1920, 1080, new Vec3(0.59, 0.75, 0.82), new Vec3(1, 1, 1));
 
@@ -182,13 +194,13 @@ public class Main {
         models.add(board);
 
         Model.ModelConfig sphere1Config = new Model.ModelConfig(gold, 1.0, 0.15, 30, 0.8, 0.1);
-        models.add(Model.createSphere(new Vec3(0, 0.5, -4), 0.5, sphere1Config, 20));
+        models.add(Model.createSphere(new Vec3(0, 0.5, -4), 0.5, sphere1Config));
 
         Model.ModelConfig sphere2Config = new Model.ModelConfig(silver, 1.0, 0.15, 30, 0.8, 0.1);
-        models.add(Model.createSphere(new Vec3(1.5, 0.3, -2.5), 0.4, sphere2Config, 20));
+        models.add(Model.createSphere(new Vec3(1.5, 0.3, -2.5), 0.4, sphere2Config));
 
         Model.ModelConfig sphere3Config = new Model.ModelConfig(graphite, 1.0, 0.15, 30, 0.8, 0.1);
-        models.add(Model.createSphere(new Vec3(-2.0, 0.4, -2.5), 0.3, sphere3Config, 20));
+        models.add(Model.createSphere(new Vec3(-2.0, 0.4, -2.5), 0.3, sphere3Config));
 
         HashSet<LightSource> lights = new HashSet<>();
         lights.add(new LightSource(new Vec3(-4, 5, 0), white.scale(1.5), 10));
@@ -57,6 +57,10 @@ public class Face {
         return this.specularRatio;
     }
 
+    public Material material() {
+        return new Material(shine, diffuseRatio, specularRatio, texture, textureOpacity);
+    }
+
     public Vec3 position(double u, double v) {
         checkUVW(u, v);
         return lerp(u, v, this.v1.position(), this.v2.position(), this.v3.position());
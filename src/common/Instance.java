@@ -0,0 +1,37 @@
+package common;
+
+import com.github.jordanpottruff.jgml.Mat4;
+
+import java.util.Optional;
+
+// A placement of a model in the world. Instances share their model's mesh instead of copying it, so any number of
+// instances of one model cost no more geometry than the model itself. The transform must be affine.
+public class Instance {
+
+    private final Model model;
+    private final Mat4 transform;
+    private final Material material;
+
+    public Instance(Model model, Mat4 transform) {
+        this(model, transform, null);
+    }
+
+    // Places the model with every face using the given material instead of the mesh's own.
+    public Instance(Model model, Mat4 transform, Material material) {
+        this.model = model;
+        this.transform = transform;
+        this.material = material;
+    }
+
+    public Model model() {
+        return this.model;
+    }
+
+    public Mat4 transform() {
+        return this.transform;
+    }
+
+    public Optional<Material> material() {
+        return Optional.ofNullable(this.material);
+    }
+}
@@ -0,0 +1,63 @@
+package common;
+
+import java.util.Objects;
+
+public class Material {
+
+    // The material of a face created without explicit lighting parameters.
+    public static final Material DEFAULT = new Material(0.0, 1.0, 0.0, null, 0.0);
+
+    private final double shine;
+    private final double diffuseRatio;
+    private final double specularRatio;
+    private final Texture texture;
+    private final double textureOpacity;
+
+    public Material(double shine, double diffuseRatio, double specularRatio, Texture texture, double textureOpacity) {
+        this.shine = shine;
+        this.diffuseRatio = diffuseRatio;
+        this.specularRatio = specularRatio;
+        this.texture = texture;
+        this.textureOpacity = textureOpacity;
+    }
+
+    public double shine() {
+        return this.shine;
+    }
+
+    public double diffuseRatio() {
+        return this.diffuseRatio;
+    }
+
+    public double specularRatio() {
+        return this.specularRatio;
+    }
+
+    public Texture texture() {
+        return this.texture;
+    }
+
+    public double textureOpacity() {
+        return this.textureOpacity;
+    }
+
+    public boolean hasTexture() {
+        return texture != null && textureOpacity > Constants.EPSILON;
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Material)) {
+            return false;
+        }
+        Material other = (Material) o;
+        return shine == other.shine && diffuseRatio == other.diffuseRatio && specularRatio == other.specularRatio &&
+                Objects.equals(texture, other.texture) && textureOpacity == other.textureOpacity;
+    }
+
+    public int hashCode() {
+        return Objects.hash(shine, diffuseRatio, specularRatio, texture, textureOpacity);
+    }
+}
@@ -0,0 +1,244 @@
+package common;
+
+import com.github.jordanpottruff.jgml.Vec2;
+import com.github.jordanpottruff.jgml.Vec3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Indexed triangle mesh: one shared vertex buffer, held as primitive attribute arrays, and an index buffer with three
+// vertex indices per triangle. Triangles reference a small material table, usually holding a single material. The
+// arrays returned by the accessors are shared and must not be modified.
+public class Mesh {
+
+    // Layout of the per-vertex attributes accepted by Builder.addVertex(double[]).
+    public static final int VERTEX_SIZE = 13;
+
+    private final double[] positions;
+    private final double[] normals;
+    private final double[] colors;
+    private final double[] textureUVs;
+    private final double[] opacities;
+    private final double[] reflectances;
+    private final int[] indices;
+    private final Material[] materials;
+    // Per triangle index into materials, or null when every triangle uses the first material.
+    private final int[] triangleMaterials;
+
+    public Mesh(double[] positions, double[] normals, double[] colors, double[] textureUVs, double[] opacities,
+                double[] reflectances, int[] indices, Material[] materials, int[] triangleMaterials) {
+        this.positions = positions;
+        this.normals = normals;
+        this.colors = colors;
+        this.textureUVs = textureUVs;
+        this.opacities = opacities;
+        this.reflectances = reflectances;
+        this.indices = indices;
+        this.materials = materials;
+        this.triangleMaterials = triangleMaterials;
+    }
+
+    public int vertexCount() {
+        return this.opacities.length;
+    }
+
+    public int triangleCount() {
+        return this.indices.length / 3;
+    }
+
+    public double[] positions() {
+        return this.positions;
+    }
+
+    public double[] normals() {
+        return this.normals;
+    }
+
+    public double[] colors() {
+        return this.colors;
+    }
+
+    public double[] textureUVs() {
+        return this.textureUVs;
+    }
+
+    public double[] opacities() {
+        return this.opacities;
+    }
+
+    public double[] reflectances() {
+        return this.reflectances;
+    }
+
+    public int[] indices() {
+        return this.indices;
+    }
+
+    public Material[] materials() {
+        return this.materials;
+    }
+
+    public int materialIndex(int triangle) {
+        return this.triangleMaterials == null ? 0 : this.triangleMaterials[triangle];
+    }
+
+    public Material material(int triangle) {
+        return this.materials[materialIndex(triangle)];
+    }
+
+    public Vertex vertex(int index) {
+        return new Vertex(vec3(positions, index), vec3(normals, index), vec3(colors, index), opacities[index],
+                reflectances[index], new Vec2(textureUVs[index*2], textureUVs[index*2 + 1]));
+    }
+
+    // Creates a Face object for one triangle. Faces are not stored; each call builds new objects.
+    public Face face(int triangle) {
+        Material material = material(triangle);
+        return new Face(vertex(indices[triangle*3]), vertex(indices[triangle*3 + 1]), vertex(indices[triangle*3 + 2]),
+                material.shine(), material.diffuseRatio(), material.specularRatio(), material.texture(),
+                material.textureOpacity());
+    }
+
+    private static Vec3 vec3(double[] array, int index) {
+        return new Vec3(array[index*3], array[index*3 + 1], array[index*3 + 2]);
+    }
+
+    public static class Builder {
+        private final List<Material> materials = new ArrayList<>();
+        private final Map<Material, Integer> materialIndices = new HashMap<>();
+        private double[] vertices = new double[VERTEX_SIZE * 64];
+        private int vertexCount = 0;
+        private int[] indices = new int[3 * 64];
+        private int indexCount = 0;
+        private int[] triangleMaterials = new int[64];
+        // Open-addressing table of vertex indices used by addUniqueVertex, or null until first needed.
+        private int[] slots;
+
+        public Builder() {
+        }
+
+        // Starts a mesh whose triangles use the given material unless told otherwise.
+        public Builder(Material material) {
+            addMaterial(material);
+        }
+
+        // Returns the index of the material in this mesh's table, adding it if no equal material is present.
+        public int addMaterial(Material material) {
+            Integer index = materialIndices.get(material);
+            if (index == null) {
+                index = materials.size();
+                materialIndices.put(material, index);
+                materials.add(material);
+            }
+            return index;
+        }
+
+        public int addVertex(Vec3 position, Vec3 normal, Vec3 color, double opacity, double reflectance, Vec2 textureUV) {
+            Vec3 unitNormal = normal.normalize();
+            return addVertex(new double[]{position.x(), position.y(), position.z(), unitNormal.x(), unitNormal.y(),
+                    unitNormal.z(), color.x(), color.y(), color.z(), opacity, reflectance, textureUV.x(), textureUV.y()});
+        }
+
+        // Adds a vertex given as VERTEX_SIZE values: position, normal, color (three each), opacity, reflectance and
+        // texture u, v. The normal must already be unit length. Returns the new vertex index.
+        public int addVertex(double[] vertex) {
+            if ((vertexCount + 1) * VERTEX_SIZE > vertices.length) {
+                vertices = Arrays.copyOf(vertices, vertices.length * 2);
+            }
+            System.arraycopy(vertex, 0, vertices, vertexCount * VERTEX_SIZE, VERTEX_SIZE);
+            return vertexCount++;
+        }
+
+        // Like addVertex, but returns the index of an identical earlier vertex instead of adding a duplicate.
+        public int addUniqueVertex(double[] vertex) {
+            if (slots == null || vertexCount * 2 >= slots.length) {
+                rehash(Math.max(256, Integer.highestOneBit(Math.max(vertexCount, 1)) * 8));
+            }
+            int mask = slots.length - 1;
+            int slot = hash(vertex, 0) & mask;
+            while (slots[slot] >= 0) {
+                if (matches(slots[slot], vertex)) {
+                    return slots[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            int index = addVertex(vertex);
+            slots[slot] = index;
+            return index;
+        }
+
+        public void addTriangle(int a, int b, int c) {
+            addTriangle(a, b, c, 0);
+        }
+
+        public void addTriangle(int a, int b, int c, int material) {
+            if (indexCount + 3 > indices.length) {
+                indices = Arrays.copyOf(indices, indices.length * 2);
+                triangleMaterials = Arrays.copyOf(triangleMaterials, indices.length / 3);
+            }
+            triangleMaterials[indexCount / 3] = material;
+            indices[indexCount++] = a;
+            indices[indexCount++] = b;
+            indices[indexCount++] = c;
+        }
+
+        public Mesh build() {
+            double[] positions = new double[vertexCount * 3];
+            double[] normals = new double[vertexCount * 3];
+            double[] colors = new double[vertexCount * 3];
+            double[] textureUVs = new double[vertexCount * 2];
+            double[] opacities = new double[vertexCount];
+            double[] reflectances = new double[vertexCount];
+            for (int v = 0; v < vertexCount; v++) {
+                int o = v * VERTEX_SIZE;
+                System.arraycopy(vertices, o, positions, v*3, 3);
+                System.arraycopy(vertices, o + 3, normals, v*3, 3);
+                System.arraycopy(vertices, o + 6, colors, v*3, 3);
+                opacities[v] = vertices[o + 9];
+                reflectances[v] = vertices[o + 10];
+                textureUVs[v*2] = vertices[o + 11];
+                textureUVs[v*2 + 1] = vertices[o + 12];
+            }
+            return new Mesh(positions, normals, colors, textureUVs, opacities, reflectances,
+                    Arrays.copyOf(indices, indexCount), materials.toArray(new Material[0]),
+                    materials.size() > 1 ? Arrays.copyOf(triangleMaterials, indexCount / 3) : null);
+        }
+
+        private boolean matches(int index, double[] vertex) {
+            int o = index * VERTEX_SIZE;
+            for (int i = 0; i < VERTEX_SIZE; i++) {
+                if (Double.doubleToLongBits(vertices[o + i]) != Double.doubleToLongBits(vertex[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void rehash(int size) {
+            slots = new int[size];
+            Arrays.fill(slots, -1);
+            int mask = size - 1;
+            for (int v = 0; v < vertexCount; v++) {
+                int slot = hash(vertices, v * VERTEX_SIZE) & mask;
+                while (slots[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = v;
+            }
+        }
+
+        private static int hash(double[] array, int offset) {
+            long h = 0;
+            for (int i = 0; i < VERTEX_SIZE; i++) {
+                h = h * 31 + Double.doubleToLongBits(array[offset + i]);
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return (int) h;
+        }
+    }
+}
@@ -3,79 +3,188 @@ package common;
 import com.github.jordanpottruff.jgml.Mat4;
 import com.github.jordanpottruff.jgml.Vec2;
 import com.github.jordanpottruff.jgml.Vec3;
+import com.github.jordanpottruff.jgml.Vec4;
 
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public class Model {
 
-    private final Set<Face> faces;
+    // Tessellation of analytic spheres for code that needs triangles, such as scene files.
+    private static final int SPHERE_TESSELLATION = 48;
+
+    private Mesh mesh;
+    private final Primitive primitive;
 
     public Model(Set<Face> faces) {
-        this.faces = faces;
+        this(toMesh(faces));
+    }
+
+    public Model(Mesh mesh) {
+        this.mesh = mesh;
+        this.primitive = null;
+    }
+
+    // A model traced as the given analytic shape rather than as triangles.
+    public Model(Primitive primitive) {
+        this.mesh = null;
+        this.primitive = primitive;
     }
 
+    // The model's triangles. An analytic model is tessellated on first use.
+    public Mesh mesh() {
+        if (this.mesh == null) {
+            this.mesh = tessellate(primitive);
+        }
+        return this.mesh;
+    }
+
+    public boolean isAnalytic() {
+        return this.primitive != null;
+    }
+
+    public Optional<Primitive> primitive() {
+        return Optional.ofNullable(this.primitive);
+    }
+
+    // Materializes the mesh as faces. Triangles that share a vertex index share the Vertex object.
     public Set<Face> faces() {
-        return new HashSet<>(this.faces);
+        Mesh mesh = mesh();
+        Vertex[] vertices = new Vertex[mesh.vertexCount()];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = mesh.vertex(i);
+        }
+        int[] indices = mesh.indices();
+        Set<Face> faces = new HashSet<>();
+        for (int t = 0; t < mesh.triangleCount(); t++) {
+            Material material = mesh.material(t);
+            faces.add(new Face(vertices[indices[t*3]], vertices[indices[t*3 + 1]], vertices[indices[t*3 + 2]],
+                    material.shine(), material.diffuseRatio(), material.specularRatio(), material.texture(),
+                    material.textureOpacity()));
+        }
+        return faces;
     }
 
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("Model\n");
-        for (Face face: faces) {
+        for (Face face: faces()) {
             sb.append(face.toString(2)).append("\n");
         }
         sb.delete(sb.length()-1, sb.length());
         return sb.toString();
     }
 
+    // Analytic models are tessellated first, since an affine transform does not keep a sphere or box analytic.
     public Model transform(Mat4 transformation) {
-        return new Model(faces.stream().map((Face face) -> new Face(
-                face.v1().transform(transformation),
-                face.v2().transform(transformation),
-                face.v3().transform(transformation)
-        )).collect(Collectors.toSet()));
+        Mesh mesh = mesh();
+        double[] positions = mesh.positions().clone();
+        double[] normals = mesh.normals().clone();
+        for (int i = 0; i < mesh.vertexCount(); i++) {
+            Vec3 position = new Vec3(transformation.multiply(new Vec4(positions[i*3], positions[i*3 + 1], positions[i*3 + 2], 1)));
+            Vec3 normal = new Vec3(transformation.multiply(new Vec4(normals[i*3], normals[i*3 + 1], normals[i*3 + 2], 0))).normalize();
+            put(positions, i, position);
+            put(normals, i, normal);
+        }
+        int[] triangleMaterials = null;
+        if (mesh.materials().length > 1) {
+            triangleMaterials = new int[mesh.triangleCount()];
+            for (int t = 0; t < triangleMaterials.length; t++) {
+                triangleMaterials[t] = mesh.materialIndex(t);
+            }
+        }
+        return new Model(new Mesh(positions, normals, mesh.colors(), mesh.textureUVs(), mesh.opacities(),
+                mesh.reflectances(), mesh.indices(), mesh.materials(), triangleMaterials));
+    }
+
+    // Returns a model sharing this model's vertex and index buffers with every face using the given material.
+    public Model withMaterial(Material material) {
+        if (primitive != null) {
+            return new Model(primitive.withMaterial(material));
+        }
+        return new Model(new Mesh(mesh.positions(), mesh.normals(), mesh.colors(), mesh.textureUVs(), mesh.opacities(),
+                mesh.reflectances(), mesh.indices(), new Material[]{material}, null));
     }
 
     public Model translate(double x, double y, double z) {
+        if (primitive != null) {
+            return new Model(primitive.translate(x, y, z));
+        }
         return transform(new Mat4.TransformBuilder().translate(x, y, z).build());
     }
 
+    private static Mesh toMesh(Set<Face> faces) {
+        Mesh.Builder builder = new Mesh.Builder();
+        Map<Vertex, Integer> vertexIndices = new IdentityHashMap<>();
+        for (Face face: faces) {
+            int material = builder.addMaterial(face.material());
+            int a = vertexIndices.computeIfAbsent(face.v1(), (vertex) -> addVertex(builder, vertex));
+            int b = vertexIndices.computeIfAbsent(face.v2(), (vertex) -> addVertex(builder, vertex));
+            int c = vertexIndices.computeIfAbsent(face.v3(), (vertex) -> addVertex(builder, vertex));
+            builder.addTriangle(a, b, c, material);
+        }
+        return builder.build();
+    }
+
+    private static int addVertex(Mesh.Builder builder, Vertex vertex) {
+        return builder.addVertex(vertex.position(), vertex.normal(), vertex.color(), vertex.opacity(),
+                vertex.reflectance(), vertex.textureUV());
+    }
+
+    private static Mesh tessellate(Primitive primitive) {
+        Material material = primitive.material();
+        ModelConfig config = new ModelConfig(primitive.color(), primitive.opacity(), primitive.reflectance(),
+                material.shine(), material.diffuseRatio(), material.specularRatio(), material.texture(),
+                material.textureOpacity());
+        if (primitive.shape() == Primitive.Shape.SPHERE) {
+            return createSphere(primitive.center(), primitive.radius(), config, SPHERE_TESSELLATION).withMaterial(material).mesh();
+        }
+        Vec3 min = primitive.min();
+        Vec3 max = primitive.max();
+        return createRectPrism(min.x(), max.x(), min.y(), max.y(), min.z(), max.z(), config).mesh();
+    }
+
+    private static void put(double[] array, int index, Vec3 value) {
+        array[index*3] = value.x();
+        array[index*3 + 1] = value.y();
+        array[index*3 + 2] = value.z();
+    }
+
     public static Model createSphere(Vec3 position,  double radius, ModelConfig config, int n) {
         int nSteps = (n%2==0) ? n : n+1; // n must be an even number.
+        int rings = nSteps/2 + 1;
         double stepSize = 2 * Math.PI / nSteps;
 
-        Set<Face> faces = new HashSet<>();
+        // Vertex (i,j) is shared by the four quads around it, at index i*rings + j.
+        Mesh.Builder builder = new Mesh.Builder(Material.DEFAULT);
+        for(int i = 0; i < nSteps; i++) {
+            for (int j = 0; j < rings; j++) {
+                Vec3 p = xyz(radius, i * stepSize, j * stepSize).add(position);
+                Vec3 normal = p.subtract(position).normalize();
+                builder.addVertex(p, normal, config.color(), config.opacity(), config.reflectance(), new Vec2(0, 0));
+            }
+        }
         for(int i = 0; i < nSteps; i++) {
-            for (int j = 0; j < nSteps/2.0; j++) {
-                double phiI = i * stepSize;
-                double phiIP1 = ((i + 1) % nSteps) * stepSize;
-                double thetaJ = j * stepSize;
-                double thetaJP1 = ((j + 1) % nSteps) * stepSize;
-
-                // Vertex and normal (i,j)
-                Vec3 pij = xyz(radius, phiI, thetaJ).add(position);
-                Vec3 nij = pij.subtract(position).normalize();
-                Vertex vij = config.createVertex(pij, nij);
-                // Vertex and normal (i+1,j)
-                Vec3 pip1j = xyz(radius, phiIP1, thetaJ).add(position);
-                Vec3 nip1j = pip1j.subtract(position).normalize();
-                Vertex vip1j = config.createVertex(pip1j, nip1j);
-                // Vertex and normal (i, j+1)
-                Vec3 pijp1 = xyz(radius, phiI, thetaJP1).add(position);
-                Vec3 nijp1 = pijp1.subtract(position).normalize();
-                Vertex vijp1 = config.createVertex(pijp1, nijp1);
-                // Vertex and normal (i+1, j+1)
-                Vec3 pip1jp1 = xyz(radius, phiIP1, thetaJP1).add(position);
-                Vec3 nip1jp1 = pip1jp1.subtract(position).normalize();
-                Vertex vip1jp1 = config.createVertex(pip1jp1, nip1jp1);
-
-                faces.add(new Face(vij, vip1j, vijp1));
-                faces.add(new Face(vijp1, vip1jp1, vip1j));
+            int iP1 = (i + 1) % nSteps;
+            for (int j = 0; j < nSteps/2; j++) {
+                int vij = i*rings + j;
+                int vip1j = iP1*rings + j;
+                int vijp1 = i*rings + j + 1;
+                int vip1jp1 = iP1*rings + j + 1;
+                builder.addTriangle(vij, vip1j, vijp1);
+                builder.addTriangle(vijp1, vip1jp1, vip1j);
             }
         }
-        return new Model(faces);
+        return new Model(builder.build());
+    }
+
+    // An exact sphere, intersected in closed form instead of being tessellated.
+    public static Model createSphere(Vec3 position, double radius, ModelConfig config) {
+        return new Model(Primitive.sphere(position, radius, config.color(), config.opacity(), config.reflectance(),
+                config.material()));
     }
 
     private static Vec3 xyz(double r, double phi, double theta) {
@@ -100,53 +209,63 @@ public class Model {
         double maxY = Math.max(y1, y2);
         double minZ = Math.min(z1, z2);
         double maxZ = Math.max(z1, z2);
-        Set<Face> faces = new HashSet<>();
-        faces.addAll(createRectX(minX, false, minY, maxY, minZ, maxZ, config));
-        faces.addAll(createRectX(maxX, true, minY, maxY, minZ, maxZ, config));
-        faces.addAll(createRectY(minY, false, minX, maxX, minZ, maxZ, config));
-        faces.addAll(createRectY(maxY, true, minX, maxX, minZ, maxZ, config));
-        faces.addAll(createRectZ(minZ, false, minX, maxX, minY, maxY, config));
-        faces.addAll(createRectZ(maxZ, true, minX, maxX, minY, maxY, config));
-        return new Model(faces);
+        Mesh.Builder builder = new Mesh.Builder(config.material());
+        addRectX(builder, minX, false, minY, maxY, minZ, maxZ, config);
+        addRectX(builder, maxX, true, minY, maxY, minZ, maxZ, config);
+        addRectY(builder, minY, false, minX, maxX, minZ, maxZ, config);
+        addRectY(builder, maxY, true, minX, maxX, minZ, maxZ, config);
+        addRectZ(builder, minZ, false, minX, maxX, minY, maxY, config);
+        addRectZ(builder, maxZ, true, minX, maxX, minY, maxY, config);
+        return new Model(builder.build());
     }
 
-    public static Set<Face> createRectX(double x, boolean posNormal, double y1, double y2, double z1, double z2, ModelConfig config) {
-        Vec3 normDir = new Vec3(posNormal ? 1.0 : -1.0, 0, 0);
-        Vertex v1 = config.createVertex(new Vec3(x, y1, z1), normDir, new Vec2(0, 0));
-        Vertex v2 = config.createVertex(new Vec3(x, y1, z2), normDir, new Vec2(0, 1));
-        Vertex v3 = config.createVertex(new Vec3(x, y2, z2), normDir, new Vec2(1, 1));
-        Vertex v4 = config.createVertex(new Vec3(x, y2, z1), normDir, new Vec2(1, 0));
+    // An axis-aligned box intersected in closed form, textured like createRectPrism.
+    public static Model createBox(double x1, double x2, double y1, double y2, double z1, double z2, ModelConfig config) {
+        return new Model(Primitive.box(new Vec3(x1, y1, z1), new Vec3(x2, y2, z2), config.color(), config.opacity(),
+                config.reflectance(), config.material()));
+    }
 
-        Set<Face> faces = new HashSet<>();
-        faces.add(config.createFace(v1, v2, v3));
-        faces.add(config.createFace(v3, v4, v1));
-        return faces;
+    public static Set<Face> createRectX(double x, boolean posNormal, double y1, double y2, double z1, double z2, ModelConfig config) {
+        Mesh.Builder builder = new Mesh.Builder(config.material());
+        addRectX(builder, x, posNormal, y1, y2, z1, z2, config);
+        return new Model(builder.build()).faces();
     }
 
     public static Set<Face> createRectY(double y, boolean posNormal, double x1, double x2, double z1, double z2, ModelConfig config) {
-        Vec3 normDir = new Vec3(0, posNormal ? 1.0 : -1.0, 0);
-        Vertex v1 = config.createVertex(new Vec3(x1, y, z1), normDir, new Vec2(0, 0));
-        Vertex v2 = config.createVertex(new Vec3(x1, y, z2), normDir, new Vec2(0, 1));
-        Vertex v3 = config.createVertex(new Vec3(x2, y, z2), normDir, new Vec2(1, 1));
-        Vertex v4 = config.createVertex(new Vec3(x2, y, z1), normDir, new Vec2(1, 0));
-
-        Set<Face> faces = new HashSet<>();
-        faces.add(config.createFace(v1, v2, v3));
-        faces.add(config.createFace(v3, v4, v1));
-        return faces;
+        Mesh.Builder builder = new Mesh.Builder(config.material());
+        addRectY(builder, y, posNormal, x1, x2, z1, z2, config);
+        return new Model(builder.build()).faces();
     }
 
     public static Set<Face> createRectZ(double z, boolean posNormal, double x1, double x2, double y1, double y2, ModelConfig config) {
+        Mesh.Builder builder = new Mesh.Builder(config.material());
+        addRectZ(builder, z, posNormal, x1, x2, y1, y2, config);
+        return new Model(builder.build()).faces();
+    }
+
+    private static void addRectX(Mesh.Builder builder, double x, boolean posNormal, double y1, double y2, double z1, double z2, ModelConfig config) {
+        Vec3 normDir = new Vec3(posNormal ? 1.0 : -1.0, 0, 0);
+        addRect(builder, new Vec3(x, y1, z1), new Vec3(x, y1, z2), new Vec3(x, y2, z2), new Vec3(x, y2, z1), normDir, config);
+    }
+
+    private static void addRectY(Mesh.Builder builder, double y, boolean posNormal, double x1, double x2, double z1, double z2, ModelConfig config) {
+        Vec3 normDir = new Vec3(0, posNormal ? 1.0 : -1.0, 0);
+        addRect(builder, new Vec3(x1, y, z1), new Vec3(x1, y, z2), new Vec3(x2, y, z2), new Vec3(x2, y, z1), normDir, config);
+    }
+
+    private static void addRectZ(Mesh.Builder builder, double z, boolean posNormal, double x1, double x2, double y1, double y2, ModelConfig config) {
         Vec3 normDir = new Vec3(0, 0, posNormal ? 1.0 : -1.0);
-        Vertex v1 = config.createVertex(new Vec3(x1, y1, z), normDir, new Vec2(0, 0));
-        Vertex v2 = config.createVertex(new Vec3(x1, y2, z), normDir, new Vec2(0, 1));
-        Vertex v3 = config.createVertex(new Vec3(x2, y2, z), normDir, new Vec2(1, 1));
-        Vertex v4 = config.createVertex(new Vec3(x2, y1, z), normDir, new Vec2(1, 0));
+        addRect(builder, new Vec3(x1, y1, z), new Vec3(x1, y2, z), new Vec3(x2, y2, z), new Vec3(x2, y1, z), normDir, config);
+    }
 
-        Set<Face> faces = new HashSet<>();
-        faces.add(config.createFace(v1, v2, v3));
-        faces.add(config.createFace(v3, v4, v1));
-        return faces;
+    // Adds four corners with texture coordinates (0,0), (0,1), (1,1) and (1,0), split into triangles 1-2-3 and 3-4-1.
+    private static void addRect(Mesh.Builder builder, Vec3 p1, Vec3 p2, Vec3 p3, Vec3 p4, Vec3 normal, ModelConfig config) {
+        int v1 = builder.addVertex(p1, normal, config.color(), config.opacity(), config.reflectance(), new Vec2(0, 0));
+        int v2 = builder.addVertex(p2, normal, config.color(), config.opacity(), config.reflectance(), new Vec2(0, 1));
+        int v3 = builder.addVertex(p3, normal, config.color(), config.opacity(), config.reflectance(), new Vec2(1, 1));
+        int v4 = builder.addVertex(p4, normal, config.color(), config.opacity(), config.reflectance(), new Vec2(1, 0));
+        builder.addTriangle(v1, v2, v3);
+        builder.addTriangle(v3, v4, v1);
     }
 
     public static class ModelConfig {
@@ -220,6 +339,13 @@ public class Model {
             return new Face(v1, v2, v3, shine, diffuseRatio, specularRatio);
         }
 
+        public Material material() {
+            if (hasTexture()) {
+                return new Material(shine, diffuseRatio, specularRatio, texture, textureOpacity);
+            }
+            return new Material(shine, diffuseRatio, specularRatio, null, 0.0);
+        }
+
         private boolean hasTexture() {
             return texture != null && textureOpacity >= Constants.EPSILON;
         }
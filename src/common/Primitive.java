@@ -0,0 +1,150 @@
+package common;
+
+import com.github.jordanpottruff.jgml.Vec2;
+import com.github.jordanpottruff.jgml.Vec3;
+
+// An analytic shape with uniform surface attributes: a sphere, or a box aligned with the axes. Both are described by
+// their bounding box, so a sphere's center and radius are the middle and half the width of its bounds. Rays are
+// tested against the shape in closed form, and its normal and texture coordinates are exact at any surface point.
+//
+// Points on a box are identified by the side they lie on: side axis*2 is the side facing toward -axis and side
+// axis*2 + 1 the side facing toward +axis. A sphere has the single side 0.
+public class Primitive {
+
+    public enum Shape { SPHERE, BOX }
+
+    private final Shape shape;
+    // minX, minY, minZ, maxX, maxY, maxZ.
+    private final double[] bounds;
+    private final Vec3 color;
+    private final double opacity;
+    private final double reflectance;
+    private final Material material;
+
+    private Primitive(Shape shape, double[] bounds, Vec3 color, double opacity, double reflectance, Material material) {
+        this.shape = shape;
+        this.bounds = bounds;
+        this.color = color;
+        this.opacity = opacity;
+        this.reflectance = reflectance;
+        this.material = material;
+    }
+
+    public static Primitive sphere(Vec3 center, double radius, Vec3 color, double opacity, double reflectance, Material material) {
+        double[] bounds = {center.x() - radius, center.y() - radius, center.z() - radius,
+                center.x() + radius, center.y() + radius, center.z() + radius};
+        return new Primitive(Shape.SPHERE, bounds, color, opacity, reflectance, material);
+    }
+
+    public static Primitive box(Vec3 min, Vec3 max, Vec3 color, double opacity, double reflectance, Material material) {
+        double[] bounds = {Math.min(min.x(), max.x()), Math.min(min.y(), max.y()), Math.min(min.z(), max.z()),
+                Math.max(min.x(), max.x()), Math.max(min.y(), max.y()), Math.max(min.z(), max.z())};
+        return new Primitive(Shape.BOX, bounds, color, opacity, reflectance, material);
+    }
+
+    public Shape shape() {
+        return this.shape;
+    }
+
+    // The shared bounds array; it must not be modified.
+    public double[] bounds() {
+        return this.bounds;
+    }
+
+    public Vec3 min() {
+        return new Vec3(bounds[0], bounds[1], bounds[2]);
+    }
+
+    public Vec3 max() {
+        return new Vec3(bounds[3], bounds[4], bounds[5]);
+    }
+
+    public Vec3 center() {
+        return new Vec3((bounds[0] + bounds[3]) / 2, (bounds[1] + bounds[4]) / 2, (bounds[2] + bounds[5]) / 2);
+    }
+
+    public double radius() {
+        return (bounds[3] - bounds[0]) / 2;
+    }
+
+    public Vec3 color() {
+        return this.color;
+    }
+
+    public double opacity() {
+        return this.opacity;
+    }
+
+    public double reflectance() {
+        return this.reflectance;
+    }
+
+    public Material material() {
+        return this.material;
+    }
+
+    public Primitive translate(double x, double y, double z) {
+        double[] moved = {bounds[0] + x, bounds[1] + y, bounds[2] + z, bounds[3] + x, bounds[4] + y, bounds[5] + z};
+        return new Primitive(shape, moved, color, opacity, reflectance, material);
+    }
+
+    public Primitive withMaterial(Material material) {
+        return new Primitive(shape, bounds, color, opacity, reflectance, material);
+    }
+
+    // The unit normal at a point on the given side.
+    public Vec3 normal(Vec3 point, int side) {
+        if (shape == Shape.SPHERE) {
+            return point.subtract(center()).normalize();
+        }
+        int axis = side / 2;
+        double sign = side % 2 == 0 ? -1.0 : 1.0;
+        return new Vec3(axis == 0 ? sign : 0, axis == 1 ? sign : 0, axis == 2 ? sign : 0);
+    }
+
+    // Sphere coordinates run once around the equator (u) and from the -y pole to the +y pole (v). Each side of a box is
+    // mapped once, with the same orientation as the faces of Model.createRectPrism.
+    public Vec2 textureUV(Vec3 point, int side) {
+        if (shape == Shape.SPHERE) {
+            Vec3 direction = point.subtract(center()).normalize();
+            double u = 0.5 + Math.atan2(direction.z(), direction.x()) / (2 * Math.PI);
+            double v = 1 - Math.acos(Math.max(-1, Math.min(1, direction.y()))) / Math.PI;
+            return new Vec2(u, v);
+        }
+        int axis = side / 2;
+        int a = axis == 0 ? 1 : 0;
+        int b = axis == 2 ? 1 : 2;
+        double[] p = {point.x(), point.y(), point.z()};
+        return new Vec2((p[a] - bounds[a]) / (bounds[a + 3] - bounds[a]), (p[b] - bounds[b]) / (bounds[b + 3] - bounds[b]));
+    }
+
+    // Texture coordinate units per world unit across the given side.
+    public double uvScale(int side) {
+        if (shape == Shape.SPHERE) {
+            double radius = radius();
+            return radius > 0 ? Math.sqrt(1 / (4 * Math.PI * radius * radius)) : 0;
+        }
+        int axis = side / 2;
+        int a = axis == 0 ? 1 : 0;
+        int b = axis == 2 ? 1 : 2;
+        double area = (bounds[a + 3] - bounds[a]) * (bounds[b + 3] - bounds[b]);
+        return area > 0 ? Math.sqrt(1 / area) : 0;
+    }
+
+    // The surface color at a point, with textures read from the mip level matching a pixel footprint of the given
+    // world-space width (0 for the full-resolution level).
+    public Vec3 color(Vec3 point, int side, Material material, double footprint) {
+        if (!material.hasTexture()) {
+            return this.color;
+        }
+        Texture texture = material.texture();
+        Vec2 uv = textureUV(point, side);
+        double levelOfDetail = footprint > 0 ? texture.levelOfDetail(footprint, uvScale(side)) : 0;
+        int rgb = texture.rgb(uv.x(), uv.y(), levelOfDetail);
+        double textureOpacity = material.textureOpacity();
+        return new Vec3(
+                Texture.red(rgb) * textureOpacity + color.x() * (1 - textureOpacity),
+                Texture.green(rgb) * textureOpacity + color.y() * (1 - textureOpacity),
+                Texture.blue(rgb) * textureOpacity + color.z() * (1 - textureOpacity));
+    }
+}
@@ -4,22 +4,73 @@ import com.github.jordanpottruff.jgml.Vec2;
 import com.github.jordanpottruff.jgml.Vec3;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+// An image texture, decoded once per file into a mip pyramid of packed 0xRRGGBB texels. Decoded pyramids are kept in a
+// process-wide cache keyed by the file's normalized absolute path, modification time and length, so every Texture of
+// the same file shares them and an edited file is decoded afresh.
+// Level 0 is the full image; each further level halves both dimensions (rounding down, at least 1) with a box filter.
+// Images whose pyramid would exceed IN_MEMORY_LIMIT are instead streamed from disk in tiles (see TextureTiles), so
+// they only occupy the shared TileCache budget.
 public class Texture {
 
-    private final BufferedImage image;
+    public static final long IN_MEMORY_LIMIT = 64L << 20;
+    private static final Map<String, FutureTask<Texels>> CACHE = new ConcurrentHashMap<>();
+    private static final double INV_255 = 1.0 / 255;
+
+    private final String path;
+    private final String absolutePath;
+    // Per level: width, height, then width*height texels in row-major order. Null for tiled textures.
+    private final int[][] levels;
+    private final TextureTiles tiles;
 
     public Texture(String file) {
-        BufferedImage fromFile;
-        try {
-            fromFile = ImageIO.read(new File(file));
-        } catch (Exception e) {
-            fromFile = null;
-        }
-        this.image = fromFile;
+        this(file, cached(file));
+    }
+
+    private Texture(String file, Texels texels) {
+        this.path = file;
+        this.absolutePath = absolutePath(file);
+        this.levels = texels.levels;
+        this.tiles = texels.tiles;
+    }
+
+    // A texture streamed from disk in tiles held by the given cache, whatever its size.
+    public static Texture tiled(String file, TileCache cache) {
+        return new Texture(file, new Texels(null, TextureTiles.openUnchecked(file, cache)));
+    }
+
+    public String path() {
+        return this.path;
+    }
+
+    // The texture's file as a normalized absolute path, which names it independently of the working directory.
+    public String absolutePath() {
+        return this.absolutePath;
+    }
+
+    public int width() {
+        return tiles != null ? tiles.width(0) : this.levels[0][0];
+    }
+
+    public int height() {
+        return tiles != null ? tiles.height(0) : this.levels[0][1];
+    }
+
+    public int levelCount() {
+        return tiles != null ? tiles.levelCount() : this.levels.length;
+    }
+
+    public boolean isTiled() {
+        return this.tiles != null;
     }
 
     public Vec3 getColor(Vec2 uv) {
@@ -27,11 +78,178 @@ public class Texture {
     }
 
     public Vec3 getColor(double u, double v) {
-        int x = (int) (u * image.getWidth());
-        int y = (int) (v * image.getHeight());
+        return getColor(u, v, 0);
+    }
+
+    public Vec3 getColor(double u, double v, double levelOfDetail) {
+        int rgb = rgb(u, v, levelOfDetail);
+        return new Vec3(red(rgb), green(rgb), blue(rgb));
+    }
+
+    // Returns the packed color of the texel containing (u, v) at the level nearest below the given level of detail.
+    // Coordinates outside [0, 1] are clamped to the edge.
+    public int rgb(double u, double v, double levelOfDetail) {
+        if (tiles != null) {
+            int level = Math.min(Math.max((int) levelOfDetail, 0), tiles.levelCount() - 1);
+            int width = tiles.width(level);
+            int height = tiles.height(level);
+            int x = Math.min(Math.max((int) (u * width), 0), width - 1);
+            int y = Math.min(Math.max((int) (v * height), 0), height - 1);
+            return tiles.texel(level, x, y);
+        }
+        int[] level = levels[Math.min(Math.max((int) levelOfDetail, 0), levels.length - 1)];
+        int width = level[0];
+        int height = level[1];
+        int x = Math.min(Math.max((int) (u * width), 0), width - 1);
+        int y = Math.min(Math.max((int) (v * height), 0), height - 1);
+        return level[2 + y * width + x];
+    }
+
+    // The level whose texels are about as wide as a footprint of the given world-space width, on a surface where one
+    // world unit spans uvScale texture coordinate units.
+    public double levelOfDetail(double footprint, double uvScale) {
+        double texels = footprint * uvScale * Math.sqrt((double) width() * height());
+        return texels <= 1 ? 0 : Math.log(texels) / Math.log(2);
+    }
+
+    public static double red(int rgb) {
+        return ((rgb >> 16) & 0xFF) * INV_255;
+    }
+
+    public static double green(int rgb) {
+        return ((rgb >> 8) & 0xFF) * INV_255;
+    }
+
+    public static double blue(int rgb) {
+        return (rgb & 0xFF) * INV_255;
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof Texture && ((Texture) o).absolutePath.equals(absolutePath);
+    }
+
+    public int hashCode() {
+        return absolutePath.hashCode();
+    }
+
+    // The first thread to ask for a file decodes it outside the map, so decoding one file never holds up threads
+    // loading others; threads asking for the same file meanwhile wait for that decode. A failed decode is not kept.
+    private static Texels cached(String file) {
+        File image = new File(file);
+        String key = absolutePath(file) + "-" + image.lastModified() + "-" + image.length();
+        FutureTask<Texels> task = new FutureTask<>(() -> load(file));
+        FutureTask<Texels> existing = CACHE.putIfAbsent(key, task);
+        if (existing == null) {
+            existing = task;
+            task.run();
+        }
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading texture " + file + ".", e);
+        } catch (ExecutionException e) {
+            CACHE.remove(key, existing);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Could not load texture " + file + ".", cause);
+        }
+    }
+
+    private static String absolutePath(String file) {
+        return Path.of(file).toAbsolutePath().normalize().toString();
+    }
+
+    private static Texels load(String file) {
+        int[] dimensions;
+        try {
+            dimensions = TextureTiles.dimensions(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("FILE_ERROR: Could not read texture " + file + ".", e);
+        }
+        // A full mip pyramid holds about 4/3 of the texels of its first level.
+        if ((long) dimensions[0] * dimensions[1] * Integer.BYTES * 4 / 3 > IN_MEMORY_LIMIT) {
+            return new Texels(null, TextureTiles.openUnchecked(file, TileCache.shared()));
+        }
+        return new Texels(decode(file), null);
+    }
+
+    private static int[][] decode(String file) {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new File(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException("FILE_ERROR: Could not read texture " + file + ".", e);
+        }
+        if (image == null) {
+            throw new UncheckedIOException(new IOException("FILE_ERROR: Unsupported texture format: " + file + "."));
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int count = 1;
+        for (int size = Math.max(width, height); size > 1; size /= 2) {
+            count++;
+        }
+        int[][] levels = new int[count][];
+        levels[0] = new int[2 + width * height];
+        levels[0][0] = width;
+        levels[0][1] = height;
+        image.getRGB(0, 0, width, height, levels[0], 2, width);
+        for (int i = 2; i < levels[0].length; i++) {
+            levels[0][i] &= 0xFFFFFF;
+        }
+        for (int l = 1; l < count; l++) {
+            levels[l] = downsample(levels[l - 1]);
+        }
+        return levels;
+    }
+
+    // Averages each 2x2 block of the level; with an odd dimension the last row or column is averaged with itself.
+    private static int[] downsample(int[] level) {
+        int width = level[0];
+        int height = level[1];
+        int newWidth = Math.max(width / 2, 1);
+        int newHeight = Math.max(height / 2, 1);
+        int[] result = new int[2 + newWidth * newHeight];
+        result[0] = newWidth;
+        result[1] = newHeight;
+        for (int y = 0; y < newHeight; y++) {
+            int y1 = Math.min(y * 2, height - 1);
+            int y2 = Math.min(y * 2 + 1, height - 1);
+            for (int x = 0; x < newWidth; x++) {
+                int x1 = Math.min(x * 2, width - 1);
+                int x2 = Math.min(x * 2 + 1, width - 1);
+                int c1 = level[2 + y1 * width + x1];
+                int c2 = level[2 + y1 * width + x2];
+                int c3 = level[2 + y2 * width + x1];
+                int c4 = level[2 + y2 * width + x2];
+                result[2 + y * newWidth + x] = average(c1, c2, c3, c4);
+            }
+        }
+        return result;
+    }
+
+    static int average(int c1, int c2, int c3, int c4) {
+        int r = (((c1 >> 16) & 0xFF) + ((c2 >> 16) & 0xFF) + ((c3 >> 16) & 0xFF) + ((c4 >> 16) & 0xFF) + 2) / 4;
+        int g = (((c1 >> 8) & 0xFF) + ((c2 >> 8) & 0xFF) + ((c3 >> 8) & 0xFF) + ((c4 >> 8) & 0xFF) + 2) / 4;
+        int b = ((c1 & 0xFF) + (c2 & 0xFF) + (c3 & 0xFF) + (c4 & 0xFF) + 2) / 4;
+        return (r << 16) | (g << 8) | b;
+    }
 
-        Color color = new Color(image.getRGB(x, y));
+    // The decoded form of a texture file: either an in-memory pyramid or its tiles on disk.
+    private static class Texels {
+        private final int[][] levels;
+        private final TextureTiles tiles;
 
-        return new Vec3(color.getRed()/255.0, color.getGreen()/255.0, color.getBlue()/255.0);
+        Texels(int[][] levels, TextureTiles tiles) {
+            this.levels = levels;
+            this.tiles = tiles;
+        }
     }
 }
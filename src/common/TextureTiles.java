@@ -0,0 +1,277 @@
+package common;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// A texture's mip pyramid kept on disk as fixed-size square tiles and paged into the heap on demand through memory
+// mapped I/O, with a TileCache deciding which tiles stay resident. Tile files are built once per image (and rebuilt
+// when the image changes) under the system temporary directory. A file starts with a header block of TILE_BYTES;
+// after it, block i + 1 holds tile i. Tiles are numbered level by level in row-major order, and each holds TILE_SIZE
+// rows of TILE_SIZE little-endian packed 0xRRGGBB texels, zero-padded past the edge of the level.
+public class TextureTiles {
+
+    public static final int TILE_SIZE = 64;
+    private static final int TILE_SHIFT = 6;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * Integer.BYTES;
+    // Mapped regions are limited to 2 GB, so the file is mapped in chunks of whole tiles.
+    private static final long CHUNK_BYTES = (long) TILE_BYTES << 16;
+    private static final int MAGIC = 0x454C4954;
+    private static final int VERSION = 1;
+    // Upper bound on the decoded image rows held in memory while building a tile file.
+    private static final long BAND_BYTES = 64L << 20;
+    private static final Path DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"), "ray-tracer-tiles");
+
+    private final TileCache cache;
+    private final int[] widths;
+    private final int[] heights;
+    private final int[] tilesX;
+    private final int[] firstTiles;
+    private final MappedByteBuffer[] chunks;
+    private final AtomicReferenceArray<int[]> resident;
+    // Per tile: the cache epoch of its last read.
+    final long[] stamps;
+
+    private TextureTiles(int[] widths, int[] heights, MappedByteBuffer[] chunks, TileCache cache) {
+        this.cache = cache;
+        this.widths = widths;
+        this.heights = heights;
+        this.tilesX = new int[widths.length];
+        this.firstTiles = new int[widths.length + 1];
+        for (int level = 0; level < widths.length; level++) {
+            tilesX[level] = tileCount(widths[level]);
+            firstTiles[level + 1] = firstTiles[level] + tilesX[level] * tileCount(heights[level]);
+        }
+        this.chunks = chunks;
+        this.resident = new AtomicReferenceArray<>(firstTiles[widths.length]);
+        this.stamps = new long[firstTiles[widths.length]];
+    }
+
+    // Opens the tile file for an image, building it first if it is missing or older than the image.
+    public static TextureTiles open(String imageFile, TileCache cache) throws IOException {
+        File image = new File(imageFile);
+        if (!image.isFile()) {
+            throw new IOException("FILE_ERROR: Could not read texture " + imageFile + ".");
+        }
+        String name = Integer.toHexString(image.getAbsoluteFile().toPath().normalize().toString().hashCode()) + "-" +
+                image.lastModified() + "-" + image.length() + ".tiles";
+        Path tileFile = DIRECTORY.resolve(name);
+        if (!Files.exists(tileFile)) {
+            Files.createDirectories(DIRECTORY);
+            Path partial = Files.createTempFile(DIRECTORY, name, ".partial");
+            try {
+                convert(imageFile, partial);
+                Files.move(partial, tileFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+        }
+        return map(tileFile, cache);
+    }
+
+    static TextureTiles openUnchecked(String imageFile, TileCache cache) {
+        try {
+            return open(imageFile, cache);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Returns the image's dimensions without decoding its pixels.
+    public static int[] dimensions(String imageFile) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(imageFile))) {
+            ImageReader reader = reader(input, imageFile);
+            try {
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    public int levelCount() {
+        return this.widths.length;
+    }
+
+    public int width(int level) {
+        return this.widths[level];
+    }
+
+    public int height(int level) {
+        return this.heights[level];
+    }
+
+    // Returns the packed color of texel (x, y) of a level, paging its tile in if needed.
+    public int texel(int level, int x, int y) {
+        int tile = firstTiles[level] + (y >> TILE_SHIFT) * tilesX[level] + (x >> TILE_SHIFT);
+        int[] texels = resident.get(tile);
+        if (texels == null) {
+            texels = cache.load(this, tile);
+        } else {
+            cache.hit();
+            stamps[tile] = cache.epoch();
+        }
+        return texels[(y & TILE_MASK) * TILE_SIZE + (x & TILE_MASK)];
+    }
+
+    int[] resident(int tile) {
+        return resident.get(tile);
+    }
+
+    void setResident(int tile, int[] texels) {
+        resident.set(tile, texels);
+    }
+
+    int[] read(int tile) {
+        int[] texels = new int[TILE_SIZE * TILE_SIZE];
+        long offset = (long) (tile + 1) * TILE_BYTES;
+        ByteBuffer chunk = chunks[(int) (offset / CHUNK_BYTES)].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        chunk.position((int) (offset % CHUNK_BYTES));
+        chunk.asIntBuffer().get(texels);
+        return texels;
+    }
+
+    private static TextureTiles map(Path tileFile, TileCache cache) throws IOException {
+        try (FileChannel channel = FileChannel.open(tileFile, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, TILE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != TILE_SIZE) {
+                throw new IOException("FILE_ERROR: " + tileFile + " is not a texture tile file.");
+            }
+            int levelCount = header.getInt();
+            int[] widths = new int[levelCount];
+            int[] heights = new int[levelCount];
+            for (int level = 0; level < levelCount; level++) {
+                widths[level] = header.getInt();
+                heights[level] = header.getInt();
+            }
+            return new TextureTiles(widths, heights, mapChunks(channel, FileChannel.MapMode.READ_ONLY, channel.size()), cache);
+        }
+    }
+
+    private static MappedByteBuffer[] mapChunks(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + CHUNK_BYTES - 1) / CHUNK_BYTES)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = i * CHUNK_BYTES;
+            chunks[i] = channel.map(mode, start, Math.min(CHUNK_BYTES, size - start));
+            chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return chunks;
+    }
+
+    // Decodes the image in bands of rows into level 0, then box-filters each level from the one above it on disk, so
+    // that only one band of the image is ever on the heap.
+    private static void convert(String imageFile, Path tileFile) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(imageFile));
+             FileChannel channel = FileChannel.open(tileFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ImageReader reader = reader(input, imageFile);
+            try {
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int levelCount = 1;
+                for (int size = Math.max(width, height); size > 1; size /= 2) {
+                    levelCount++;
+                }
+                int[] widths = new int[levelCount];
+                int[] heights = new int[levelCount];
+                widths[0] = width;
+                heights[0] = height;
+                for (int level = 1; level < levelCount; level++) {
+                    widths[level] = Math.max(widths[level - 1] / 2, 1);
+                    heights[level] = Math.max(heights[level - 1] / 2, 1);
+                }
+                long tileCount = 0;
+                for (int level = 0; level < levelCount; level++) {
+                    tileCount += (long) tileCount(widths[level]) * tileCount(heights[level]);
+                }
+                MappedByteBuffer[] chunks = mapChunks(channel, FileChannel.MapMode.READ_WRITE, (tileCount + 1) * TILE_BYTES);
+                TextureTiles tiles = new TextureTiles(widths, heights, chunks, null);
+
+                int bandRows = (int) Math.max(TILE_SIZE, BAND_BYTES / Integer.BYTES / width / TILE_SIZE * TILE_SIZE);
+                int[] row = new int[width];
+                ImageReadParam param = reader.getDefaultReadParam();
+                for (int y0 = 0; y0 < height; y0 += bandRows) {
+                    int rows = Math.min(bandRows, height - y0);
+                    param.setSourceRegion(new Rectangle(0, y0, width, rows));
+                    BufferedImage band = reader.read(0, param);
+                    for (int y = 0; y < rows; y++) {
+                        band.getRGB(0, y, width, 1, row, 0, width);
+                        for (int x = 0; x < width; x++) {
+                            tiles.write(0, x, y0 + y, row[x] & 0xFFFFFF);
+                        }
+                    }
+                }
+                for (int level = 1; level < levelCount; level++) {
+                    int previous = level - 1;
+                    for (int y = 0; y < heights[level]; y++) {
+                        int y1 = Math.min(y * 2, heights[previous] - 1);
+                        int y2 = Math.min(y * 2 + 1, heights[previous] - 1);
+                        for (int x = 0; x < widths[level]; x++) {
+                            int x1 = Math.min(x * 2, widths[previous] - 1);
+                            int x2 = Math.min(x * 2 + 1, widths[previous] - 1);
+                            tiles.write(level, x, y, Texture.average(tiles.stored(previous, x1, y1),
+                                    tiles.stored(previous, x2, y1), tiles.stored(previous, x1, y2), tiles.stored(previous, x2, y2)));
+                        }
+                    }
+                }
+
+                ByteBuffer header = chunks[0];
+                header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, TILE_SIZE).putInt(12, levelCount);
+                for (int level = 0; level < levelCount; level++) {
+                    header.putInt(16 + level * 8, widths[level]).putInt(20 + level * 8, heights[level]);
+                }
+                for (MappedByteBuffer chunk: chunks) {
+                    chunk.force();
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private long offset(int level, int x, int y) {
+        int tile = firstTiles[level] + (y >> TILE_SHIFT) * tilesX[level] + (x >> TILE_SHIFT);
+        return (long) (tile + 1) * TILE_BYTES + ((y & TILE_MASK) * TILE_SIZE + (x & TILE_MASK)) * Integer.BYTES;
+    }
+
+    private int stored(int level, int x, int y) {
+        long offset = offset(level, x, y);
+        return chunks[(int) (offset / CHUNK_BYTES)].getInt((int) (offset % CHUNK_BYTES));
+    }
+
+    private void write(int level, int x, int y, int rgb) {
+        long offset = offset(level, x, y);
+        chunks[(int) (offset / CHUNK_BYTES)].putInt((int) (offset % CHUNK_BYTES), rgb);
+    }
+
+    private static int tileCount(int texels) {
+        return (texels + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    private static ImageReader reader(ImageInputStream input, String imageFile) throws IOException {
+        Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+        if (readers == null || !readers.hasNext()) {
+            throw new IOException("FILE_ERROR: Unsupported texture format: " + imageFile + ".");
+        }
+        ImageReader reader = readers.next();
+        // Bands are read with separate calls, which may need to seek back to the start of the image data.
+        reader.setInput(input, false, true);
+        return reader;
+    }
+}
@@ -0,0 +1,159 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// Pool of texture tiles paged in from disk, bounded by a byte budget. Each read of a resident tile stamps it with the
+// current epoch, which advances on every miss. When a miss takes the pool over budget, the tiles with the oldest stamps
+// are evicted until it is back under LOW_WATER of the budget. Reads of resident tiles take no locks; misses are
+// serialized.
+public class TileCache {
+
+    public static final long DEFAULT_BUDGET = 256L << 20;
+    private static final double LOW_WATER = 0.9;
+    private static final TileCache SHARED = new TileCache(DEFAULT_BUDGET);
+
+    private final List<Resident> residents = new ArrayList<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long budget;
+    private long residentBytes;
+    private volatile long epoch;
+
+    public TileCache(long budget) {
+        this.budget = budget;
+    }
+
+    // The cache used by textures that are not given one explicitly.
+    public static TileCache shared() {
+        return SHARED;
+    }
+
+    public synchronized long budget() {
+        return this.budget;
+    }
+
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        if (residentBytes > budget) {
+            evict();
+        }
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), residents.size(), residentBytes, budget);
+    }
+
+    long epoch() {
+        return this.epoch;
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    // Pages a tile in, unless another thread did so first, and returns its texels.
+    synchronized int[] load(TextureTiles tiles, int tile) {
+        int[] texels = tiles.resident(tile);
+        if (texels != null) {
+            hits.increment();
+            return texels;
+        }
+        misses.increment();
+        texels = tiles.read(tile);
+        tiles.setResident(tile, texels);
+        tiles.stamps[tile] = ++epoch;
+        residents.add(new Resident(tiles, tile));
+        residentBytes += TextureTiles.TILE_BYTES;
+        if (residentBytes > budget) {
+            evict();
+        }
+        return texels;
+    }
+
+    private void evict() {
+        // Stamps keep changing under concurrent reads, so sort by a snapshot of them.
+        for (Resident resident: residents) {
+            resident.stamp = resident.tiles.stamps[resident.tile];
+        }
+        Resident[] byAge = residents.toArray(new Resident[0]);
+        Arrays.sort(byAge, Comparator.comparingLong((Resident resident) -> resident.stamp));
+        long target = (long) (budget * LOW_WATER);
+        int evicted = 0;
+        while (residentBytes > target && evicted < byAge.length) {
+            Resident resident = byAge[evicted++];
+            resident.tiles.setResident(resident.tile, null);
+            residentBytes -= TextureTiles.TILE_BYTES;
+        }
+        residents.clear();
+        residents.addAll(Arrays.asList(byAge).subList(evicted, byAge.length));
+        evictions.add(evicted);
+    }
+
+    private static class Resident {
+        private final TextureTiles tiles;
+        private final int tile;
+        private long stamp;
+
+        Resident(TextureTiles tiles, int tile) {
+            this.tiles = tiles;
+            this.tile = tile;
+        }
+    }
+
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int residentTiles;
+        private final long residentBytes;
+        private final long budget;
+
+        public Stats(long hits, long misses, long evictions, int residentTiles, long residentBytes, long budget) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.residentTiles = residentTiles;
+            this.residentBytes = residentBytes;
+            this.budget = budget;
+        }
+
+        public long hits() {
+            return this.hits;
+        }
+
+        public long misses() {
+            return this.misses;
+        }
+
+        public long evictions() {
+            return this.evictions;
+        }
+
+        public int residentTiles() {
+            return this.residentTiles;
+        }
+
+        public long residentBytes() {
+            return this.residentBytes;
+        }
+
+        public long budget() {
+            return this.budget;
+        }
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        public String toString() {
+            return String.format("Texture tiles: %d hits, %d misses (%.2f%% hit rate), %d evictions, %d tiles resident (%.1f of %.1f MB)",
+                    hits, misses, 100 * hitRate(), evictions, residentTiles, residentBytes / 1e6, budget / 1e6);
+        }
+    }
+}
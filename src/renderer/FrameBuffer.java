@@ -0,0 +1,124 @@
+package renderer;
+
+import com.github.jordanpottruff.jgml.Vec3;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+// High dynamic range accumulation buffer. Each pixel holds the running sum of its RGB samples, the sum of squared
+// sample luminance and the number of samples taken, so several passes can add to the same pixel and the noise in each
+// pixel can be estimated. Writes are not synchronized: concurrent writers must
+// touch disjoint pixels (as tiles do), and passes must be separated by a happens-before edge such as a pool join.
+public class FrameBuffer {
+
+    private final int width;
+    private final int height;
+    private final double[] sums;
+    private final double[] luminanceSquares;
+    private final int[] sampleCounts;
+
+    public FrameBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.sums = new double[width * height * 3];
+        this.luminanceSquares = new double[width * height];
+        this.sampleCounts = new int[width * height];
+    }
+
+    public int width() {
+        return this.width;
+    }
+
+    public int height() {
+        return this.height;
+    }
+
+    public void addSample(int x, int y, double r, double g, double b) {
+        int pixel = y * width + x;
+        sums[pixel*3] += r;
+        sums[pixel*3 + 1] += g;
+        sums[pixel*3 + 2] += b;
+        double luminance = luminance(r, g, b);
+        luminanceSquares[pixel] += luminance * luminance;
+        sampleCounts[pixel]++;
+    }
+
+    public void addSample(int x, int y, Vec3 rgb) {
+        addSample(x, y, rgb.x(), rgb.y(), rgb.z());
+    }
+
+    public int sampleCount(int x, int y) {
+        return sampleCounts[y * width + x];
+    }
+
+    public long totalSamples() {
+        long total = 0;
+        for (int count: sampleCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    // Sample variance of the luminance of the samples in a pixel, or infinity with fewer than two samples.
+    public double variance(int x, int y) {
+        int pixel = y * width + x;
+        int count = sampleCounts[pixel];
+        if (count < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = luminance(sums[pixel*3], sums[pixel*3 + 1], sums[pixel*3 + 2]) / count;
+        return Math.max(luminanceSquares[pixel] / count - mean * mean, 0.0) * count / (count - 1);
+    }
+
+    // Estimated standard error of the mean luminance of a pixel.
+    public double standardError(int x, int y) {
+        return Math.sqrt(variance(x, y) / Math.max(sampleCount(x, y), 1));
+    }
+
+    public Vec3 getColor(int x, int y) {
+        int pixel = y * width + x;
+        int count = Math.max(sampleCounts[pixel], 1);
+        return new Vec3(sums[pixel*3] / count, sums[pixel*3 + 1] / count, sums[pixel*3 + 2] / count);
+    }
+
+    public void clear() {
+        Arrays.fill(sums, 0.0);
+        Arrays.fill(luminanceSquares, 0.0);
+        Arrays.fill(sampleCounts, 0);
+    }
+
+    // Resolves the averaged samples to 8-bit RGB, clamping each channel to [0, 1].
+    public BufferedImage toImage() {
+        int[] packed = new int[width * height];
+        for (int pixel = 0; pixel < packed.length; pixel++) {
+            int count = sampleCounts[pixel];
+            if (count == 0) {
+                continue;
+            }
+            double scale = 1.0 / count;
+            int r = quantize(sums[pixel*3] * scale);
+            int g = quantize(sums[pixel*3 + 1] * scale);
+            int b = quantize(sums[pixel*3 + 2] * scale);
+            packed[pixel] = (r<<16)|(g<<8)|b;
+        }
+        BufferedImage image = new BufferedImage(width, height, Renderer.COLOR_TYPE);
+        image.setRGB(0, 0, width, height, packed, 0, width);
+        return image;
+    }
+
+    public Renderer toRenderer() {
+        return new Renderer(toImage());
+    }
+
+    public void savePNG(String filename) {
+        toRenderer().savePNG(filename);
+    }
+
+    private static double luminance(double r, double g, double b) {
+        return 0.2126 * r + 0.7152 * g + 0.0722 * b;
+    }
+
+    private static int quantize(double value) {
+        return (int) Math.round(Math.min(Math.max(value, 0.0), 1.0) * 255);
+    }
+}
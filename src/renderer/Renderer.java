@@ -9,13 +9,17 @@ import java.io.IOException;
 
 public class Renderer {
 
-    private static final int COLOR_TYPE = BufferedImage.TYPE_INT_RGB;
+    static final int COLOR_TYPE = BufferedImage.TYPE_INT_RGB;
     private final BufferedImage image;
 
     public Renderer(int width, int height) {
         this.image = new BufferedImage(width, height, COLOR_TYPE);
     }
 
+    Renderer(BufferedImage image) {
+        this.image = image;
+    }
+
     public void setColor(int x, int y, Vec3 rgb) {
         int r = (int) Math.round(rgb.x()*255);
         int g = (int) Math.round(rgb.y()*255);
@@ -0,0 +1,635 @@
+package tracer;
+
+import com.github.jordanpottruff.jgml.Vec3;
+import world.CompiledWorld;
+import world.GeometryStore;
+import world.SceneFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+// Bounding volume hierarchy over every face of a compiled world, built top-down with a binned surface area heuristic.
+// Nodes are stored depth-first in flat arrays: the left child of an interior node always directly follows its parent.
+// The faces of the world are reordered so that every leaf references a contiguous range.
+//
+// A hierarchy can also live outside the heap, with its nodes and faces in a GeometryStore (see map and toNative).
+// Traversal is the same either way: it reads nodes, boxes and faces through accessors that pick the store or the
+// arrays.
+public class BVH {
+
+    private static final int BIN_COUNT = 16;
+    private static final int MAX_LEAF_SIZE = 4;
+    private static final int MAX_DEPTH = 64;
+    static final int STACK_SIZE = MAX_DEPTH + 1;
+    private static final double TRAVERSAL_COST = 1.0;
+    private static final double INTERSECTION_COST = 1.0;
+
+    // The faces indexed by this hierarchy, or null for a hierarchy over boxes.
+    private CompiledWorld scene;
+    private final int primitiveCount;
+    // Per node: minX, minY, minZ, maxX, maxY, maxZ.
+    private double[] bounds;
+    // Per node: first face (leaf) or right child (interior), face count (0 for interior) and split axis.
+    private int[] nodes;
+    private int nodeCount;
+    // The leaves' faces laid out for VectorTriangles, or null to test faces one at a time.
+    private TrianglePacks packs;
+    // The store holding the nodes and faces in place of the arrays, or null.
+    private GeometryStore stored;
+    private Stats stats;
+
+    private BVH(CompiledWorld scene, int primitiveCount) {
+        this.scene = scene;
+        this.primitiveCount = primitiveCount;
+        this.bounds = new double[Math.max(1, 2 * primitiveCount) * 6];
+        this.nodes = new int[Math.max(1, 2 * primitiveCount) * 3];
+        this.nodeCount = 0;
+    }
+
+    private BVH(CompiledWorld scene, GeometryStore stored) {
+        this.scene = scene;
+        this.primitiveCount = scene.faceCount();
+        this.stored = stored;
+        this.nodeCount = (int) (stored.nodes().size() / 3);
+    }
+
+    public static BVH build(CompiledWorld scene) {
+        long start = System.nanoTime();
+        BVH bvh = new BVH(scene, scene.faceCount());
+        bvh.build();
+        bvh.packs = TrianglePacks.build(bvh.scene, bvh.nodes, bvh.nodeCount);
+        bvh.stats = bvh.computeStats((System.nanoTime() - start) / 1e6);
+        return bvh;
+    }
+
+    // Opens a scene file, reusing its stored hierarchy if it has one and building a new one otherwise.
+    public static BVH load(Path path) throws IOException {
+        long start = System.nanoTime();
+        SceneFile file = SceneFile.open(path);
+        if (!file.hasHierarchy()) {
+            return build(file.scene());
+        }
+        BVH bvh = new BVH(file.scene(), file.scene().faceCount());
+        bvh.bounds = file.hierarchyBounds();
+        bvh.nodes = file.hierarchyNodes();
+        bvh.nodeCount = bvh.nodes.length / 3;
+        bvh.packs = TrianglePacks.build(bvh.scene, bvh.nodes, bvh.nodeCount);
+        bvh.stats = bvh.computeStats((System.nanoTime() - start) / 1e6);
+        return bvh;
+    }
+
+    // Maps a scene file saved with a hierarchy (see SceneFile.map). Nothing that grows with the scene is copied onto the
+    // heap; packed leaves are not built, so faces are tested one at a time.
+    public static BVH map(Path path) throws IOException {
+        long start = System.nanoTime();
+        SceneFile file = SceneFile.map(path);
+        GeometryStore store = file.scene().store();
+        if (!store.hasHierarchy()) {
+            throw new IOException("FILE_ERROR: " + path + " has no hierarchy to map; write one with BVH.save.");
+        }
+        BVH bvh = new BVH(file.scene(), store);
+        bvh.stats = bvh.computeStats((System.nanoTime() - start) / 1e6);
+        return bvh;
+    }
+
+    // A copy of this hierarchy, with the faces it indexes, in direct memory. The copy keeps the world's materials and
+    // lights but not its source models.
+    public BVH toNative() {
+        long start = System.nanoTime();
+        GeometryStore store = stored != null ? stored : scene.store().withHierarchy(
+                GeometryStore.Doubles.wrap(bounds, nodeCount * 6), GeometryStore.Ints.wrap(nodes, nodeCount * 3));
+        store = store.toNative();
+        BVH bvh = new BVH(new CompiledWorld(store, scene.modelCount(), scene.materials(), scene.lights()), store);
+        bvh.stats = bvh.computeStats((System.nanoTime() - start) / 1e6);
+        return bvh;
+    }
+
+    // Writes the compiled world, in this hierarchy's face order, together with the hierarchy itself.
+    public void save(Path path) throws IOException {
+        if (stored != null) {
+            SceneFile.write(scene, stored.nodeBounds(), stored.nodes(), path);
+            return;
+        }
+        double[] usedBounds = new double[nodeCount * 6];
+        int[] usedNodes = new int[nodeCount * 3];
+        System.arraycopy(bounds, 0, usedBounds, 0, usedBounds.length);
+        System.arraycopy(nodes, 0, usedNodes, 0, usedNodes.length);
+        SceneFile.write(scene, usedBounds, usedNodes, path);
+    }
+
+    // The compiled world in the face order used by this hierarchy.
+    public CompiledWorld scene() {
+        return this.scene;
+    }
+
+    // Builds a hierarchy over count boxes (6 doubles each, laid out like node bounds) rather than faces. Leaves
+    // reference ranges of the reordered boxes; order receives the original index of each reordered box.
+    static BVH overBoxes(double[] boxes, int count, int[] order) {
+        long start = System.nanoTime();
+        BVH bvh = new BVH(null, count);
+        System.arraycopy(bvh.buildTree(boxes, count), 0, order, 0, count);
+        bvh.stats = bvh.computeStats((System.nanoTime() - start) / 1e6);
+        return bvh;
+    }
+
+    public Stats stats() {
+        return this.stats;
+    }
+
+    double[] bounds() {
+        return this.bounds;
+    }
+
+    int[] nodes() {
+        return this.nodes;
+    }
+
+    int nodeCount() {
+        return this.nodeCount;
+    }
+
+    public Optional<Intersection> closest(Ray ray, int ignore, double epsilon) {
+        Hit hit = Hit.local();
+        Vec3 origin = ray.origin();
+        Vec3 direction = ray.direction();
+        if (closest(origin.x(), origin.y(), origin.z(), direction.x(), direction.y(), direction.z(), ignore, epsilon, hit)) {
+            return Optional.of(Intersection.fromHit(ray, scene, hit));
+        }
+        return Optional.empty();
+    }
+
+    // Finds the closest intersection, skipping faces belonging to the model at index ignore (or none if -1). The hit
+    // record is reset first and holds the result if true is returned.
+    public boolean closest(double ox, double oy, double oz, double dx, double dy, double dz, int ignore, double epsilon, Hit hit) {
+        hit.reset();
+        findClosest(ox, oy, oz, dx, dy, dz, ignore, epsilon, hit);
+        return hit.found();
+    }
+
+    // Like closest, but keeps the hit record's current contents and only replaces them with nearer hits.
+    void findClosest(double ox, double oy, double oz, double dx, double dy, double dz, int ignore, double epsilon, Hit hit) {
+        if (nodeCount == 0) {
+            return;
+        }
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+        int[] stack = hit.stack;
+        int stackSize = 0;
+        int node = 0;
+        while (true) {
+            if (hitsBox(node, ox, oy, oz, invX, invY, invZ, hit.t)) {
+                int count = nodeField(node, 1);
+                if (count > 0) {
+                    intersectLeaf(node, nodeField(node, 0), count, ox, oy, oz, dx, dy, dz, -1, ignore, epsilon, hit);
+                } else if (isNegative(nodeField(node, 2), invX, invY, invZ)) {
+                    // Visit the child nearer to the ray origin first so that the hit distance shrinks sooner.
+                    stack[stackSize++] = node + 1;
+                    node = nodeField(node, 0);
+                    continue;
+                } else {
+                    stack[stackSize++] = nodeField(node, 0);
+                    node = node + 1;
+                    continue;
+                }
+            }
+            if (stackSize == 0) {
+                break;
+            }
+            node = stack[--stackSize];
+        }
+    }
+
+    public boolean occluded(Ray ray, double tMax, int ignore, double epsilon) {
+        Vec3 origin = ray.origin();
+        Vec3 direction = ray.direction();
+        return occluded(origin.x(), origin.y(), origin.z(), direction.x(), direction.y(), direction.z(), tMax, ignore,
+                epsilon, Hit.local());
+    }
+
+    // Returns whether any face (other than those of the model at index ignore) intersects the ray at a distance in
+    // [epsilon, tMax). Traversal stops at the first such face, so the hit record holds an arbitrary blocker.
+    public boolean occluded(double ox, double oy, double oz, double dx, double dy, double dz, double tMax, int ignore,
+                            double epsilon, Hit hit) {
+        hit.reset();
+        hit.t = tMax;
+        return findAny(ox, oy, oz, dx, dy, dz, tMax, ignore, epsilon, hit);
+    }
+
+    // Like occluded, but expects the caller to have set the hit record's distance to tMax.
+    boolean findAny(double ox, double oy, double oz, double dx, double dy, double dz, double tMax, int ignore,
+                    double epsilon, Hit hit) {
+        if (nodeCount == 0) {
+            return false;
+        }
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+        int[] stack = hit.stack;
+        int stackSize = 0;
+        int node = 0;
+        while (true) {
+            if (hitsBox(node, ox, oy, oz, invX, invY, invZ, tMax)) {
+                int count = nodeField(node, 1);
+                if (count > 0) {
+                    if (intersectLeaf(node, nodeField(node, 0), count, ox, oy, oz, dx, dy, dz, tMax, ignore, epsilon, hit)) {
+                        return true;
+                    }
+                } else {
+                    stack[stackSize++] = nodeField(node, 0);
+                    node = node + 1;
+                    continue;
+                }
+            }
+            if (stackSize == 0) {
+                return false;
+            }
+            node = stack[--stackSize];
+        }
+    }
+
+    // Tests the faces of a leaf, skipping those of the model at index ignore. With a negative tMax every face is tested
+    // and the closest hit kept; otherwise the test stops at the first face hit before tMax and returns true.
+    private boolean intersectLeaf(int node, int first, int count, double ox, double oy, double oz,
+                                  double dx, double dy, double dz, double tMax, int ignore, double epsilon, Hit hit) {
+        boolean any = tMax >= 0;
+        if (packs != null) {
+            int[] faceModels = scene.faceModels();
+            int firstBlock = packs.leafBlocks[node];
+            for (int block = firstBlock; block < firstBlock + TrianglePacks.blockCount(count); block++) {
+                long lanes = packs.lanes(block, faceModels, ignore);
+                if (!any) {
+                    VectorTriangles.closest(packs, block, lanes, ox, oy, oz, dx, dy, dz, epsilon, hit);
+                } else if (VectorTriangles.any(packs, block, lanes, ox, oy, oz, dx, dy, dz, tMax, epsilon, hit)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (stored != null) {
+            GeometryStore.Doubles triangles = stored.triangles();
+            GeometryStore.Ints faceModels = stored.faceModels();
+            for (int i = first; i < first + count; i++) {
+                if (faceModels.get(i) != ignore && Triangles.intersect(triangles, i, ox, oy, oz, dx, dy, dz, epsilon, hit)
+                        && any) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        double[] triangles = scene.triangles();
+        int[] faceModels = scene.faceModels();
+        for (int i = first; i < first + count; i++) {
+            if (faceModels[i] != ignore && Triangles.intersect(triangles, i, ox, oy, oz, dx, dy, dz, epsilon, hit) && any) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isNegative(int axis, double invX, double invY, double invZ) {
+        return (axis == 0 ? invX : axis == 1 ? invY : invZ) < 0;
+    }
+
+    boolean hitsBox(int node, double ox, double oy, double oz, double invX, double invY, double invZ, double tMax) {
+        if (stored != null) {
+            GeometryStore.Doubles bounds = stored.nodeBounds();
+            long b = node * 6L;
+            return hitsBox(bounds.get(b), bounds.get(b + 1), bounds.get(b + 2), bounds.get(b + 3), bounds.get(b + 4),
+                    bounds.get(b + 5), ox, oy, oz, invX, invY, invZ, tMax);
+        }
+        int b = node * 6;
+        return hitsBox(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5],
+                ox, oy, oz, invX, invY, invZ, tMax);
+    }
+
+    // Slab test of a ray, given by its origin and inverse direction, against a box.
+    private static boolean hitsBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+                                   double ox, double oy, double oz, double invX, double invY, double invZ, double tMax) {
+        double tx1 = (minX - ox) * invX;
+        double tx2 = (maxX - ox) * invX;
+        double tNear = Math.min(tx1, tx2);
+        double tFar = Math.max(tx1, tx2);
+        double ty1 = (minY - oy) * invY;
+        double ty2 = (maxY - oy) * invY;
+        tNear = Math.max(tNear, Math.min(ty1, ty2));
+        tFar = Math.min(tFar, Math.max(ty1, ty2));
+        double tz1 = (minZ - oz) * invZ;
+        double tz2 = (maxZ - oz) * invZ;
+        tNear = Math.max(tNear, Math.min(tz1, tz2));
+        tFar = Math.min(tFar, Math.max(tz1, tz2));
+        return tFar >= Math.max(tNear, 0.0) && tNear <= tMax;
+    }
+
+    private void build() {
+        int n = scene.faceCount();
+        double[] triangles = scene.triangles();
+        double[] faceBounds = new double[n * 6];
+        for (int i = 0; i < n; i++) {
+            int t = i * CompiledWorld.TRIANGLE_STRIDE;
+            double x = triangles[t], y = triangles[t + 1], z = triangles[t + 2];
+            resetBox(faceBounds, i);
+            growBox(faceBounds, i, x, y, z);
+            growBox(faceBounds, i, x + triangles[t + 3], y + triangles[t + 4], z + triangles[t + 5]);
+            growBox(faceBounds, i, x + triangles[t + 6], y + triangles[t + 7], z + triangles[t + 8]);
+        }
+        this.scene = scene.permute(buildTree(faceBounds, n));
+    }
+
+    // Builds the nodes over n primitives with the given bounds and returns the primitive order the leaves refer to.
+    private int[] buildTree(double[] primitiveBounds, int n) {
+        double[] centroids = new double[n * 3];
+        for (int i = 0; i < n; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                centroids[i*3 + axis] = 0.5 * (primitiveBounds[i*6 + axis] + primitiveBounds[i*6 + axis + 3]);
+            }
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        if (n > 0) {
+            buildNode(order, primitiveBounds, centroids, 0, n, 0);
+        }
+        return order;
+    }
+
+    private void buildNode(int[] order, double[] faceBounds, double[] centroids, int start, int end, int depth) {
+        int node = allocateNode();
+        resetBox(bounds, node);
+        double[] centroidBox = new double[6];
+        resetBox(centroidBox, 0);
+        for (int i = start; i < end; i++) {
+            int f = order[i];
+            growBox(bounds, node, faceBounds[f*6], faceBounds[f*6 + 1], faceBounds[f*6 + 2]);
+            growBox(bounds, node, faceBounds[f*6 + 3], faceBounds[f*6 + 4], faceBounds[f*6 + 5]);
+            growBox(centroidBox, 0, centroids[f*3], centroids[f*3 + 1], centroids[f*3 + 2]);
+        }
+
+        int count = end - start;
+        Split split = count <= 1 || depth >= MAX_DEPTH ? null : findSplit(node, order, faceBounds, centroids, centroidBox, start, end);
+        // Packed leaves test up to TrianglePacks.LANES faces for about the cost of one.
+        double leafCost = INTERSECTION_COST * (scene != null && TrianglePacks.ENABLED ? TrianglePacks.blockCount(count) : count);
+        if (split == null || (count <= MAX_LEAF_SIZE && split.cost >= leafCost)) {
+            makeLeaf(node, start, count);
+            return;
+        }
+
+        int mid = partition(order, centroids, centroidBox, split, start, end);
+        if (mid == start || mid == end) {
+            // All centroids fell in one bin; fall back to splitting the range in half.
+            mid = (start + end) / 2;
+        }
+        nodes[node*3 + 2] = split.axis;
+        buildNode(order, faceBounds, centroids, start, mid, depth + 1);
+        nodes[node*3] = nodeCount;
+        nodes[node*3 + 1] = 0;
+        buildNode(order, faceBounds, centroids, mid, end, depth + 1);
+    }
+
+    private Split findSplit(int node, int[] order, double[] faceBounds, double[] centroids, double[] centroidBox, int start, int end) {
+        Split best = null;
+        double parentArea = Math.max(surfaceArea(bounds, node), Double.MIN_VALUE);
+        for (int axis = 0; axis < 3; axis++) {
+            double min = centroidBox[axis];
+            double extent = centroidBox[axis + 3] - min;
+            if (extent <= 0) {
+                continue;
+            }
+            int[] binCounts = new int[BIN_COUNT];
+            double[] binBounds = new double[BIN_COUNT * 6];
+            for (int b = 0; b < BIN_COUNT; b++) {
+                resetBox(binBounds, b);
+            }
+            for (int i = start; i < end; i++) {
+                int f = order[i];
+                int bin = binIndex(centroids[f*3 + axis], min, extent);
+                binCounts[bin]++;
+                growBox(binBounds, bin, faceBounds[f*6], faceBounds[f*6 + 1], faceBounds[f*6 + 2]);
+                growBox(binBounds, bin, faceBounds[f*6 + 3], faceBounds[f*6 + 4], faceBounds[f*6 + 5]);
+            }
+
+            // Sweep from the right to get the area and count of every right-hand partition.
+            double[] rightAreas = new double[BIN_COUNT];
+            int[] rightCounts = new int[BIN_COUNT];
+            double[] sweep = new double[6];
+            resetBox(sweep, 0);
+            int sweepCount = 0;
+            for (int b = BIN_COUNT - 1; b > 0; b--) {
+                mergeBox(sweep, binBounds, b);
+                sweepCount += binCounts[b];
+                rightAreas[b] = sweepCount > 0 ? surfaceArea(sweep, 0) : 0;
+                rightCounts[b] = sweepCount;
+            }
+            resetBox(sweep, 0);
+            sweepCount = 0;
+            for (int b = 0; b < BIN_COUNT - 1; b++) {
+                mergeBox(sweep, binBounds, b);
+                sweepCount += binCounts[b];
+                if (sweepCount == 0 || rightCounts[b + 1] == 0) {
+                    continue;
+                }
+                double cost = TRAVERSAL_COST + INTERSECTION_COST *
+                        (surfaceArea(sweep, 0) * sweepCount + rightAreas[b + 1] * rightCounts[b + 1]) / parentArea;
+                if (best == null || cost < best.cost) {
+                    best = new Split(axis, b, cost);
+                }
+            }
+        }
+        return best;
+    }
+
+    private int partition(int[] order, double[] centroids, double[] centroidBox, Split split, int start, int end) {
+        double min = centroidBox[split.axis];
+        double extent = centroidBox[split.axis + 3] - min;
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+            if (binIndex(centroids[order[i]*3 + split.axis], min, extent) <= split.bin) {
+                i++;
+            } else {
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+                j--;
+            }
+        }
+        return i;
+    }
+
+    private static int binIndex(double centroid, double min, double extent) {
+        int bin = (int) (BIN_COUNT * (centroid - min) / extent);
+        return Math.min(Math.max(bin, 0), BIN_COUNT - 1);
+    }
+
+    private int allocateNode() {
+        if (nodeCount * 6 >= bounds.length) {
+            double[] newBounds = new double[bounds.length * 2];
+            System.arraycopy(bounds, 0, newBounds, 0, bounds.length);
+            bounds = newBounds;
+            int[] newNodes = new int[nodes.length * 2];
+            System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+            nodes = newNodes;
+        }
+        return nodeCount++;
+    }
+
+    private void makeLeaf(int node, int first, int count) {
+        nodes[node*3] = first;
+        nodes[node*3 + 1] = count;
+        nodes[node*3 + 2] = 0;
+    }
+
+    private static void resetBox(double[] box, int index) {
+        int b = index * 6;
+        box[b] = box[b + 1] = box[b + 2] = Double.POSITIVE_INFINITY;
+        box[b + 3] = box[b + 4] = box[b + 5] = Double.NEGATIVE_INFINITY;
+    }
+
+    private static void growBox(double[] box, int index, double x, double y, double z) {
+        int b = index * 6;
+        box[b] = Math.min(box[b], x);
+        box[b + 1] = Math.min(box[b + 1], y);
+        box[b + 2] = Math.min(box[b + 2], z);
+        box[b + 3] = Math.max(box[b + 3], x);
+        box[b + 4] = Math.max(box[b + 4], y);
+        box[b + 5] = Math.max(box[b + 5], z);
+    }
+
+    private static void mergeBox(double[] box, double[] other, int index) {
+        int o = index * 6;
+        if (other[o] > other[o + 3]) {
+            return;
+        }
+        growBox(box, 0, other[o], other[o + 1], other[o + 2]);
+        growBox(box, 0, other[o + 3], other[o + 4], other[o + 5]);
+    }
+
+    private static double surfaceArea(double[] box, int index) {
+        int b = index * 6;
+        double dx = box[b + 3] - box[b];
+        double dy = box[b + 4] - box[b + 1];
+        double dz = box[b + 5] - box[b + 2];
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    private Stats computeStats(double buildMillis) {
+        if (nodeCount == 0) {
+            return new Stats(primitiveCount, 0, 0, 0, 0, 0, buildMillis);
+        }
+        int leafCount = 0;
+        int maxLeafSize = 0;
+        int maxDepth = 0;
+        double cost = 0;
+        double rootArea = Math.max(nodeArea(0), Double.MIN_VALUE);
+        // Walks the nodes depth-first, which visits them in index order; the stack holds right children and depths.
+        int[] stack = new int[STACK_SIZE * 2];
+        int stackSize = 0;
+        int node = 0;
+        int depth = 0;
+        while (true) {
+            double relativeArea = nodeArea(node) / rootArea;
+            int count = nodeField(node, 1);
+            maxDepth = Math.max(maxDepth, depth);
+            if (count > 0) {
+                leafCount++;
+                maxLeafSize = Math.max(maxLeafSize, count);
+                cost += relativeArea * INTERSECTION_COST * count;
+                if (stackSize == 0) {
+                    break;
+                }
+                depth = stack[--stackSize];
+                node = stack[--stackSize];
+            } else {
+                cost += relativeArea * TRAVERSAL_COST;
+                if (stackSize + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[stackSize++] = nodeField(node, 0);
+                stack[stackSize++] = depth + 1;
+                node++;
+                depth++;
+            }
+        }
+        return new Stats(primitiveCount, nodeCount, leafCount, maxLeafSize, maxDepth, cost, buildMillis);
+    }
+
+    private int nodeField(int node, int field) {
+        return stored != null ? stored.nodes().get(node*3L + field) : nodes[node*3 + field];
+    }
+
+    private double nodeArea(int node) {
+        if (stored == null) {
+            return surfaceArea(bounds, node);
+        }
+        double[] box = new double[6];
+        for (int i = 0; i < 6; i++) {
+            box[i] = stored.nodeBounds().get(node*6L + i);
+        }
+        return surfaceArea(box, 0);
+    }
+
+    private static class Split {
+        private final int axis;
+        private final int bin;
+        private final double cost;
+
+        Split(int axis, int bin, double cost) {
+            this.axis = axis;
+            this.bin = bin;
+            this.cost = cost;
+        }
+    }
+
+    public static class Stats {
+        private final int faceCount;
+        private final int nodeCount;
+        private final int leafCount;
+        private final int maxLeafSize;
+        private final int maxDepth;
+        private final double sahCost;
+        private final double buildMillis;
+
+        public Stats(int faceCount, int nodeCount, int leafCount, int maxLeafSize, int maxDepth, double sahCost, double buildMillis) {
+            this.faceCount = faceCount;
+            this.nodeCount = nodeCount;
+            this.leafCount = leafCount;
+            this.maxLeafSize = maxLeafSize;
+            this.maxDepth = maxDepth;
+            this.sahCost = sahCost;
+            this.buildMillis = buildMillis;
+        }
+
+        public int faceCount() {
+            return this.faceCount;
+        }
+
+        public int nodeCount() {
+            return this.nodeCount;
+        }
+
+        public int leafCount() {
+            return this.leafCount;
+        }
+
+        public int maxLeafSize() {
+            return this.maxLeafSize;
+        }
+
+        public int maxDepth() {
+            return this.maxDepth;
+        }
+
+        public double sahCost() {
+            return this.sahCost;
+        }
+
+        public double buildMillis() {
+            return this.buildMillis;
+        }
+
+        public String toString() {
+            double averageLeafSize = leafCount == 0 ? 0 : (double) faceCount / leafCount;
+            return String.format("BVH: %d faces, %d nodes, %d leaves (avg %.2f, max %d faces), depth %d, SAH cost %.2f, built in %.1f ms",
+                    faceCount, nodeCount, leafCount, averageLeafSize, maxLeafSize, maxDepth, sahCost, buildMillis);
+        }
+    }
+}
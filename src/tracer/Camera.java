@@ -0,0 +1,141 @@
+package tracer;
+
+import com.github.jordanpottruff.jgml.Mat4;
+
+// A camera for an image of a given size. Everything that depends only on the camera is worked out once when it is
+// made: its origin, the direction through the top-left corner of the image and how that direction changes per pixel
+// along x and y. A camera ray then costs two multiply-adds per component and a normalization, with no matrix products.
+//
+// A camera with a lens is a thin lens: each ray starts at a point on a disk of the aperture's radius around the origin
+// and passes through the point the pinhole ray reaches at the focus distance, so only surfaces at that distance along
+// the view axis are sharp. Lens points are drawn from the sampler at the ray's image point.
+public class Camera {
+
+    // Indices of the random numbers that pick a ray's point on the lens.
+    static final int LENS_SAMPLE_U = -2;
+    static final int LENS_SAMPLE_V = -3;
+
+    private final Mat4 transform;
+    private final double fov;
+    private final int width;
+    private final int height;
+    private final double aperture;
+    private final double focusDistance;
+    // Camera-to-world transform as the top three rows of an affine matrix.
+    private final double[] toWorld = new double[TwoLevelBVH.AFFINE_SIZE];
+    // Image-space units per unit of camera-space x or y at unit depth.
+    private final double scale;
+    private final double spread;
+    private final double[] origin = new double[3];
+    // The direction through image point (0, 0), with unit depth along the view axis, and its change per unit of x and y.
+    private final double[] corner = new double[3];
+    private final double[] stepX = new double[3];
+    private final double[] stepY = new double[3];
+    // The camera's x and y axes scaled by the aperture.
+    private final double[] lensX = new double[3];
+    private final double[] lensY = new double[3];
+
+    public Camera(Mat4 transform, double fov, int width, int height) {
+        this(transform, fov, width, height, 0, 1);
+    }
+
+    private Camera(Mat4 transform, double fov, int width, int height, double aperture, double focusDistance) {
+        this.transform = transform;
+        this.fov = fov;
+        this.width = width;
+        this.height = height;
+        this.aperture = aperture;
+        this.focusDistance = focusDistance;
+        TwoLevelBVH.affine(transform, toWorld, 0);
+        double tangent = Math.tan(fov / 2 * Math.PI / 180);
+        this.scale = height / (2 * tangent);
+        this.spread = 2 * tangent / height;
+        for (int axis = 0; axis < 3; axis++) {
+            int row = axis * 4;
+            origin[axis] = toWorld[row + 3];
+            stepX[axis] = TwoLevelBVH.vector(toWorld, row, 1 / scale, 0, 0);
+            stepY[axis] = TwoLevelBVH.vector(toWorld, row, 0, -1 / scale, 0);
+            corner[axis] = TwoLevelBVH.vector(toWorld, row, -width / 2.0 / scale, height / 2.0 / scale, -1);
+            lensX[axis] = TwoLevelBVH.vector(toWorld, row, aperture, 0, 0);
+            lensY[axis] = TwoLevelBVH.vector(toWorld, row, 0, aperture, 0);
+        }
+    }
+
+    // A copy of this camera with a thin lens of the given radius, focused at the given distance along the view axis.
+    // An aperture of 0 is a pinhole.
+    public Camera withLens(double aperture, double focusDistance) {
+        if (aperture < 0 || focusDistance <= 0) {
+            throw new IllegalArgumentException("Aperture must not be negative and focus distance must be positive.");
+        }
+        return new Camera(transform, fov, width, height, aperture, focusDistance);
+    }
+
+    public int width() {
+        return this.width;
+    }
+
+    public int height() {
+        return this.height;
+    }
+
+    public boolean hasLens() {
+        return this.aperture > 0;
+    }
+
+    // The width of one pixel per unit of distance from the camera.
+    double pixelSpread() {
+        return this.spread;
+    }
+
+    double scale() {
+        return this.scale;
+    }
+
+    double[] toWorld() {
+        return this.toWorld;
+    }
+
+    // Writes the ray through image point (x, y) to out from offset: its origin, then its unit direction.
+    void ray(double x, double y, Sampler sampler, double[] out, int offset) {
+        double dx = corner[0] + x * stepX[0] + y * stepY[0];
+        double dy = corner[1] + x * stepX[1] + y * stepY[1];
+        double dz = corner[2] + x * stepX[2] + y * stepY[2];
+        double ox = origin[0], oy = origin[1], oz = origin[2];
+        if (aperture > 0) {
+            // Maps the lens sample onto the unit disk while keeping areas in proportion [Shirley and Chiu 1997].
+            double a = 2 * sampler.random(x, y, 0, LENS_SAMPLE_U) - 1;
+            double b = 2 * sampler.random(x, y, 0, LENS_SAMPLE_V) - 1;
+            double diskX = 0;
+            double diskY = 0;
+            if (a != 0 || b != 0) {
+                double radius;
+                double angle;
+                if (Math.abs(a) > Math.abs(b)) {
+                    radius = a;
+                    angle = Math.PI / 4 * (b / a);
+                } else {
+                    radius = b;
+                    angle = Math.PI / 2 - Math.PI / 4 * (a / b);
+                }
+                diskX = radius * Math.cos(angle);
+                diskY = radius * Math.sin(angle);
+            }
+            double lx = diskX * lensX[0] + diskY * lensY[0];
+            double ly = diskX * lensX[1] + diskY * lensY[1];
+            double lz = diskX * lensX[2] + diskY * lensY[2];
+            ox += lx;
+            oy += ly;
+            oz += lz;
+            dx = dx * focusDistance - lx;
+            dy = dy * focusDistance - ly;
+            dz = dz * focusDistance - lz;
+        }
+        double length = Math.sqrt(dx*dx + dy*dy + dz*dz);
+        out[offset] = ox;
+        out[offset + 1] = oy;
+        out[offset + 2] = oz;
+        out[offset + 3] = dx / length;
+        out[offset + 4] = dy / length;
+        out[offset + 5] = dz / length;
+    }
+}
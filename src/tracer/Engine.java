@@ -0,0 +1,9 @@
+package tracer;
+
+// How a Tracer schedules rays. DEPTH_FIRST follows each camera ray through all of its bounces and shadow rays before
+// starting the next; WAVEFRONT traces all the camera rays of a tile together, one stage at a time (see Wavefront).
+// Both produce the same image.
+public enum Engine {
+    DEPTH_FIRST,
+    WAVEFRONT
+}
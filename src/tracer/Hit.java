@@ -0,0 +1,62 @@
+package tracer;
+
+// Mutable record of the closest hit found so far by a query. Queries reuse one record per thread so that traversal
+// and triangle tests do not allocate.
+public class Hit {
+
+    private static final ThreadLocal<Hit> LOCAL = ThreadLocal.withInitial(Hit::new);
+
+    double t;
+    double u;
+    double v;
+    int face;
+    // Index of the instance the face belongs to, or -1 for faces of the world's own models.
+    int instance;
+    // Traversal stack scratch space for the query using this record, one for each level of a TwoLevelBVH.
+    final int[] stack = new int[BVH.STACK_SIZE];
+    final int[] instanceStack = new int[BVH.STACK_SIZE];
+    // Per-lane t, u and v scratch space for VectorTriangles.
+    final double[] lanes = new double[3 * TrianglePacks.LANES];
+    // Scratch space for the probability LightTree.sample reports when shading samples the lights.
+    final double[] probability = new double[1];
+
+    public Hit() {
+        reset();
+    }
+
+    public static Hit local() {
+        return LOCAL.get();
+    }
+
+    public void reset() {
+        this.t = Double.POSITIVE_INFINITY;
+        this.u = 0;
+        this.v = 0;
+        this.face = -1;
+        this.instance = -1;
+    }
+
+    public boolean found() {
+        return this.face >= 0;
+    }
+
+    public double t() {
+        return this.t;
+    }
+
+    public double u() {
+        return this.u;
+    }
+
+    public double v() {
+        return this.v;
+    }
+
+    public int face() {
+        return this.face;
+    }
+
+    public int instance() {
+        return this.instance;
+    }
+}
@@ -1,24 +1,54 @@
 package tracer;
 
+import com.github.jordanpottruff.jgml.Mat4;
 import com.github.jordanpottruff.jgml.Vec3;
 import common.Face;
+import common.Material;
 import common.Model;
+import common.Primitive;
+import world.CompiledWorld;
 
 public class Intersection {
     private final Vec3 point;
     private final Ray ray;
-    private final Model model;
-    private final Face face;
-    private final Vec3 uvw;
+    private final CompiledWorld scene;
+    private final int face;
+    private final double u;
+    private final double v;
     private final double t;
+    // The hierarchy and index of the instance hit, or null and -1 for a face of the world's own models.
+    private final TwoLevelBVH instances;
+    private final int instance;
+    // The analytic shape hit, or null for a face. For a shape, face is the side that was hit.
+    private final Primitive primitive;
 
-    public Intersection(Vec3 point, Ray ray, Model model, Face face, Vec3 uvw, double t) {
-        this.point = new Vec3(point);
+    public Intersection(Vec3 point, Ray ray, CompiledWorld scene, int face, double u, double v, double t) {
+        this(point, ray, scene, face, u, v, t, null, -1);
+    }
+
+    private Intersection(Vec3 point, Ray ray, CompiledWorld scene, int face, double u, double v, double t,
+                         TwoLevelBVH instances, int instance) {
+        this.point = point;
         this.ray = ray;
-        this.model = model;
+        this.scene = scene;
         this.face = face;
-        this.uvw = new Vec3(uvw);
+        this.u = u;
+        this.v = v;
         this.t = t;
+        this.instances = instances;
+        this.instance = instance;
+        this.primitive = instance < 0 ? null : instances.primitive(instance);
+    }
+
+    public static Intersection fromHit(Ray ray, CompiledWorld scene, Hit hit) {
+        Vec3 point = ray.origin().add(ray.direction().normalize().scale(hit.t()));
+        return new Intersection(point, ray, scene, hit.face(), hit.u(), hit.v(), hit.t());
+    }
+
+    public static Intersection fromHit(Ray ray, TwoLevelBVH bvh, Hit hit) {
+        Vec3 point = ray.origin().add(ray.direction().normalize().scale(hit.t()));
+        return new Intersection(point, ray, bvh.scene(hit.instance()), hit.face(), hit.u(), hit.v(), hit.t(), bvh,
+                hit.instance());
     }
 
     public Vec3 point() {
@@ -27,14 +57,36 @@ public class Intersection {
 
     public Ray ray() { return this.ray; }
 
-    public Model model() { return this.model; }
+    public Model model() { return instance < 0 ? this.scene.model(face) : this.instances.model(instance); }
 
+    public int modelIndex() { return instance < 0 ? this.scene.modelIndex(face) : this.instances.modelIndex(instance); }
+
+    // The face hit, or null for an analytic shape.
     public Face face() {
+        if (primitive != null) {
+            return null;
+        }
+        Face source = this.scene.face(face);
+        if (instance < 0) {
+            return source;
+        }
+        Mat4 transform = this.instances.transform(instance);
+        Material material = material();
+        return new Face(source.v1().transform(transform), source.v2().transform(transform),
+                source.v3().transform(transform), material.shine(), material.diffuseRatio(), material.specularRatio(),
+                material.texture(), material.textureOpacity());
+    }
+
+    public int faceIndex() {
         return this.face;
     }
 
+    public Material material() {
+        return instance < 0 ? this.scene.material(face) : this.instances.material(instance, face);
+    }
+
     public Vec3 uvw() {
-        return this.uvw;
+        return new Vec3(u, v, 1-u-v);
     }
 
     public double t() {
@@ -42,14 +94,30 @@ public class Intersection {
     }
 
     public Vec3 normal() {
-        return this.face.normal(this.uvw.x(), this.uvw.y());
+        if (primitive != null) {
+            return this.instances.normalToWorld(instance, primitive.normal(objectPoint(), face));
+        }
+        Vec3 normal = this.scene.normal(face, this.u, this.v);
+        return instance < 0 ? normal : this.instances.normalToWorld(instance, normal);
     }
 
     public Vec3 color() {
-        return this.face.color(this.uvw.x(), this.uvw.y());
+        return color(0);
+    }
+
+    // The surface color with textures filtered for a pixel footprint of the given world-space width.
+    public Vec3 color(double footprint) {
+        if (primitive != null) {
+            return primitive.color(objectPoint(), face, material(), footprint);
+        }
+        return this.scene.color(face, this.u, this.v, material(), footprint);
     }
 
     public double reflectance() {
-        return this.face.reflectance(this.uvw.x(), this.uvw.y());
+        return primitive != null ? primitive.reflectance() : this.scene.reflectance(face, this.u, this.v);
+    }
+
+    private Vec3 objectPoint() {
+        return this.instances.pointToObject(instance, point);
     }
 }
@@ -0,0 +1,141 @@
+package tracer;
+
+import com.github.jordanpottruff.jgml.Vec3;
+import common.LightSource;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Binary hierarchy over the lights of a scene, for choosing a light at a shading point in proportion to its estimated
+// contribution. Each node stores the box around its lights and their total power (luminance of the color times the
+// intensity). Sampling walks from the root to one light, at each node picking a child with probability proportional to
+// its power over its squared distance to the point, so it costs time logarithmic in the light count. Every light with
+// positive power has a positive probability, so weighting a sample by one over its probability is unbiased.
+//
+// Nodes are stored depth-first like those of BVH: the left child of an interior node directly follows its parent.
+public class LightTree {
+
+    // Keeps the distance term finite for points inside or at a node.
+    private static final double MIN_DISTANCE_SQUARED = 1e-4;
+
+    private final LightSource[] lights;
+    // Per node: minX, minY, minZ, maxX, maxY, maxZ.
+    private final double[] bounds;
+    private final double[] power;
+    // Per node: the light index (leaf) or right child (interior), and whether it is a leaf.
+    private final int[] nodes;
+    private int nodeCount;
+
+    private LightTree(LightSource[] lights) {
+        this.lights = lights;
+        int capacity = Math.max(1, 2 * lights.length - 1);
+        this.bounds = new double[capacity * 6];
+        this.power = new double[capacity];
+        this.nodes = new int[capacity * 2];
+        this.nodeCount = 0;
+    }
+
+    public static LightTree build(LightSource[] lights) {
+        LightTree tree = new LightTree(lights);
+        Integer[] order = new Integer[lights.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        if (lights.length > 0) {
+            tree.buildNode(order, 0, lights.length);
+        }
+        return tree;
+    }
+
+    public LightSource[] lights() {
+        return this.lights;
+    }
+
+    public int size() {
+        return this.lights.length;
+    }
+
+    public static double power(LightSource light) {
+        Vec3 color = light.color();
+        return Math.max(0.2126 * color.x() + 0.7152 * color.y() + 0.0722 * color.z(), 0) * light.intensity();
+    }
+
+    // Chooses a light for the point (x, y, z) using the random number u in [0, 1). Returns its index and stores the
+    // probability it was chosen with in probability[0].
+    public int sample(double x, double y, double z, double u, double[] probability) {
+        double p = 1;
+        int node = 0;
+        while (nodes[node*2 + 1] == 0) {
+            int left = node + 1;
+            int right = nodes[node*2];
+            double leftWeight = importance(left, x, y, z);
+            double rightWeight = importance(right, x, y, z);
+            double total = leftWeight + rightWeight;
+            double pLeft = total > 0 ? leftWeight / total : 0.5;
+            if (u < pLeft) {
+                u = u / pLeft;
+                p *= pLeft;
+                node = left;
+            } else {
+                u = (u - pLeft) / (1 - pLeft);
+                p *= 1 - pLeft;
+                node = right;
+            }
+            // Guard against rounding carrying u up to 1.
+            u = Math.min(u, Math.nextDown(1.0));
+        }
+        probability[0] = p;
+        return nodes[node*2];
+    }
+
+    private double importance(int node, double x, double y, double z) {
+        int b = node * 6;
+        double dx = (bounds[b] + bounds[b + 3]) / 2 - x;
+        double dy = (bounds[b + 1] + bounds[b + 4]) / 2 - y;
+        double dz = (bounds[b + 2] + bounds[b + 5]) / 2 - z;
+        // A point closer to the center than the node's half-diagonal could be next to any of its lights.
+        double ex = bounds[b + 3] - bounds[b], ey = bounds[b + 4] - bounds[b + 1], ez = bounds[b + 5] - bounds[b + 2];
+        double radiusSquared = (ex*ex + ey*ey + ez*ez) / 4;
+        return power[node] / Math.max(dx*dx + dy*dy + dz*dz, Math.max(radiusSquared, MIN_DISTANCE_SQUARED));
+    }
+
+    // Splits the lights at the median of the longest axis of the box around their positions.
+    private int buildNode(Integer[] order, int start, int end) {
+        int node = nodeCount++;
+        int b = node * 6;
+        bounds[b] = bounds[b + 1] = bounds[b + 2] = Double.POSITIVE_INFINITY;
+        bounds[b + 3] = bounds[b + 4] = bounds[b + 5] = Double.NEGATIVE_INFINITY;
+        for (int i = start; i < end; i++) {
+            LightSource light = lights[order[i]];
+            double[] position = {light.position().x(), light.position().y(), light.position().z()};
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[b + axis] = Math.min(bounds[b + axis], position[axis]);
+                bounds[b + 3 + axis] = Math.max(bounds[b + 3 + axis], position[axis]);
+            }
+            power[node] += power(light);
+        }
+
+        if (end - start == 1) {
+            nodes[node*2] = order[start];
+            nodes[node*2 + 1] = 1;
+            return node;
+        }
+        int axis = 0;
+        for (int a = 1; a < 3; a++) {
+            if (bounds[b + 3 + a] - bounds[b + a] > bounds[b + 3 + axis] - bounds[b + axis]) {
+                axis = a;
+            }
+        }
+        int sortAxis = axis;
+        Arrays.sort(order, start, end, Comparator.comparingDouble((Integer i) -> coordinate(lights[i].position(), sortAxis)));
+        int mid = (start + end) / 2;
+        buildNode(order, start, mid);
+        nodes[node*2] = buildNode(order, mid, end);
+        nodes[node*2 + 1] = 0;
+        return node;
+    }
+
+    private static double coordinate(Vec3 position, int axis) {
+        return axis == 0 ? position.x() : axis == 1 ? position.y() : position.z();
+    }
+}
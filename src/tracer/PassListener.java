@@ -0,0 +1,33 @@
+package tracer;
+
+import renderer.FrameBuffer;
+
+// Called by Tracer.traceProgressive after every completed pass with the frame accumulated so far. Returning false
+// stops rendering after that pass.
+public interface PassListener {
+
+    boolean onPass(int pass, FrameBuffer frameBuffer);
+
+    // Writes the accumulated frame to the given PNG after every pass.
+    static PassListener snapshotEveryPass(String filename) {
+        return (pass, frameBuffer) -> {
+            frameBuffer.savePNG(filename);
+            return true;
+        };
+    }
+
+    // Writes the accumulated frame to the given PNG after the first pass, then after the first pass that completes at
+    // least the given number of seconds after the previous snapshot.
+    static PassListener snapshotEvery(double seconds, String filename) {
+        long interval = (long) (seconds * 1e9);
+        long[] lastSnapshot = {0};
+        return (pass, frameBuffer) -> {
+            long now = System.nanoTime();
+            if (pass == 1 || now - lastSnapshot[0] >= interval) {
+                frameBuffer.savePNG(filename);
+                lastSnapshot[0] = now;
+            }
+            return true;
+        };
+    }
+}
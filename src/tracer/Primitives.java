@@ -0,0 +1,73 @@
+package tracer;
+
+import common.Primitive;
+
+public class Primitives {
+
+    private Primitives() {}
+
+    // Closed-form test of one ray against an analytic primitive. Like Triangles.intersect, records the hit and returns
+    // true only if it lies in [epsilon, hit.t). The hit's face is the side that was hit; u and v are not used.
+    public static boolean intersect(Primitive primitive, double ox, double oy, double oz, double dx, double dy, double dz,
+                                    double epsilon, Hit hit) {
+        double[] bounds = primitive.bounds();
+        double t;
+        int side;
+        if (primitive.shape() == Primitive.Shape.SPHERE) {
+            double radius = (bounds[3] - bounds[0]) / 2;
+            double cx = ox - (bounds[0] + bounds[3]) / 2;
+            double cy = oy - (bounds[1] + bounds[4]) / 2;
+            double cz = oz - (bounds[2] + bounds[5]) / 2;
+            // The direction need not be unit length, so solve a*t^2 + 2*b*t + c = 0 in full.
+            double a = dx*dx + dy*dy + dz*dz;
+            double b = cx*dx + cy*dy + cz*dz;
+            double c = cx*cx + cy*cy + cz*cz - radius*radius;
+            double discriminant = b*b - a*c;
+            if (discriminant < 0) {
+                return false;
+            }
+            double root = Math.sqrt(discriminant);
+            t = (-b - root) / a;
+            if (t < epsilon) {
+                // The ray starts inside the sphere, so it leaves through the far side.
+                t = (-b + root) / a;
+            }
+            side = 0;
+        } else {
+            double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+            double tx1 = (bounds[0] - ox) * invX, tx2 = (bounds[3] - ox) * invX;
+            double ty1 = (bounds[1] - oy) * invY, ty2 = (bounds[4] - oy) * invY;
+            double tz1 = (bounds[2] - oz) * invZ, tz2 = (bounds[5] - oz) * invZ;
+            double nearX = Math.min(tx1, tx2), farX = Math.max(tx1, tx2);
+            double nearY = Math.min(ty1, ty2), farY = Math.max(ty1, ty2);
+            double nearZ = Math.min(tz1, tz2), farZ = Math.max(tz1, tz2);
+            double tNear = Math.max(nearX, Math.max(nearY, nearZ));
+            double tFar = Math.min(farX, Math.min(farY, farZ));
+            if (tFar < tNear) {
+                return false;
+            }
+            // A ray entering through a side moving toward -axis enters through the side facing +axis, and vice versa.
+            if (tNear >= epsilon) {
+                t = tNear;
+                int axis = tNear == nearX ? 0 : tNear == nearY ? 1 : 2;
+                side = axis * 2 + (component(axis, dx, dy, dz) < 0 ? 1 : 0);
+            } else {
+                t = tFar;
+                int axis = tFar == farX ? 0 : tFar == farY ? 1 : 2;
+                side = axis * 2 + (component(axis, dx, dy, dz) < 0 ? 0 : 1);
+            }
+        }
+        if (t < epsilon || t >= hit.t) {
+            return false;
+        }
+        hit.t = t;
+        hit.u = 0;
+        hit.v = 0;
+        hit.face = side;
+        return true;
+    }
+
+    private static double component(int axis, double x, double y, double z) {
+        return axis == 0 ? x : axis == 1 ? y : z;
+    }
+}
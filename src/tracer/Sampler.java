@@ -9,6 +9,16 @@ import java.util.Random;
 
 public class Sampler {
 
+    private final int seed;
+
+    public Sampler() {
+        this(0);
+    }
+
+    public Sampler(long seed) {
+        this.seed = (int) (seed ^ (seed >>> 32));
+    }
+
     public List<Vec2> jitter(double minX, double maxX, double minY, double maxY, int numSamples) {
         int size = (int) Math.sqrt(numSamples);
         double unitWidth = (maxX - minX)/size;
@@ -67,6 +77,113 @@ public class Sampler {
         return new PixelSample(x, y, multiJitter(x, x+1, y, y+1, numSamples));
     }
 
+    // Fills out with numSamples (x, y) pairs inside pixel (x, y) using correlated multi-jittered sampling [Kensler 2013]:
+    // the samples are stratified both on a grid and in each dimension separately. Each (pixel, batch) pair gets its own
+    // scrambled pattern, so further batches for the same pixel are decorrelated from earlier ones. Nothing is allocated.
+    public void multiJitterPixel(int x, int y, int numSamples, int batch, double[] out) {
+        int pattern = hash(x, y, batch);
+        int m = (int) Math.ceil(Math.sqrt(numSamples));
+        int n = (numSamples + m - 1) / m;
+        for (int i = 0; i < numSamples; i++) {
+            int s = permute(i, numSamples, pattern * 0x51633e2d);
+            int sx = permute(s % m, m, pattern * 0xa511e9b3);
+            int sy = permute(s / m, n, pattern * 0x63d83595);
+            double jx = randomDouble(s, pattern * 0xa399d265);
+            double jy = randomDouble(s, pattern * 0x711ad6a5);
+            out[2*i] = x + (s % m + (sy + jx) / n) / m;
+            out[2*i + 1] = y + (s / m + (sx + jy) / m) / n;
+        }
+    }
+
+    // Writes sample number index of an open-ended sequence for pixel (x, y) into out[0] and out[1]. The sequence is the
+    // base 2/3 Halton sequence under a per-pixel toroidal shift, so any prefix of it covers the pixel evenly.
+    public void haltonPixel(int x, int y, int index, double[] out) {
+        int pattern = hash(x, y, -1);
+        double hx = radicalInverse(index + 1, 2) + randomDouble(0, pattern * 0x68bc21eb);
+        double hy = radicalInverse(index + 1, 3) + randomDouble(1, pattern * 0x02e5be93);
+        out[0] = x + (hx - Math.floor(hx));
+        out[1] = y + (hy - Math.floor(hy));
+    }
+
+    // A pseudo-random number in [0, 1) fixed by the seed, a point and an index, for choices made where a path meets a
+    // surface rather than per pixel. Jittered samples give every path distinct points, so the choices are uncorrelated.
+    public double random(double x, double y, double z, int index) {
+        int pattern = hash(Double.hashCode(x), Double.hashCode(y), Double.hashCode(z));
+        return randomDouble(index, pattern);
+    }
+
+    private static double radicalInverse(int index, int base) {
+        double inverseBase = 1.0 / base;
+        double factor = inverseBase;
+        double result = 0;
+        while (index > 0) {
+            result += (index % base) * factor;
+            index /= base;
+            factor *= inverseBase;
+        }
+        return result;
+    }
+
+    private int hash(int x, int y, int batch) {
+        int h = seed;
+        h = mix(h ^ x * 0x9e3779b9);
+        h = mix(h ^ y * 0x85ebca6b);
+        return mix(h ^ batch * 0xc2b2ae35);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x7feb352d;
+        h ^= h >>> 15;
+        h *= 0x846ca68b;
+        return h ^ (h >>> 16);
+    }
+
+    // Pseudo-random permutation of [0, length), selected by pattern, evaluated one element at a time.
+    private static int permute(int i, int length, int pattern) {
+        int w = length - 1;
+        w |= w >>> 1;
+        w |= w >>> 2;
+        w |= w >>> 4;
+        w |= w >>> 8;
+        w |= w >>> 16;
+        do {
+            i ^= pattern;
+            i *= 0xe170893d;
+            i ^= pattern >>> 16;
+            i ^= (i & w) >>> 4;
+            i ^= pattern >>> 8;
+            i *= 0x0929eb3f;
+            i ^= pattern >>> 23;
+            i ^= (i & w) >>> 1;
+            i *= 1 | pattern >>> 27;
+            i *= 0x6935fa69;
+            i ^= (i & w) >>> 11;
+            i *= 0x74dcb303;
+            i ^= (i & w) >>> 2;
+            i *= 0x9e501cc3;
+            i ^= (i & w) >>> 2;
+            i *= 0xc860a3df;
+            i &= w;
+            i ^= i >>> 5;
+        } while (Integer.compareUnsigned(i, length) >= 0);
+        return Integer.remainderUnsigned(i + pattern, length);
+    }
+
+    private static double randomDouble(int i, int pattern) {
+        i ^= pattern;
+        i ^= i >>> 17;
+        i ^= i >>> 10;
+        i *= 0xb36534e5;
+        i ^= i >>> 12;
+        i ^= i >>> 21;
+        i *= 0x93fc4795;
+        i ^= 0xdf6e307f;
+        i ^= i >>> 17;
+        i *= 1 | pattern >>> 18;
+        return (i & 0xffffffffL) * (1.0 / 4294967808.0);
+    }
+
     public static class PixelSample {
         private final int pixelX;
         private final int pixelY;
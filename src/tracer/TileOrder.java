@@ -0,0 +1,9 @@
+package tracer;
+
+// The order in which the tiles of a frame are handed to workers. Z-order and Hilbert order keep consecutive tiles
+// spatially close, so a worker walking a run of tiles tends to revisit the same parts of the scene.
+public enum TileOrder {
+    SCANLINE,
+    Z_ORDER,
+    HILBERT
+}
@@ -0,0 +1,168 @@
+package tracer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Splits a frame into square tiles and renders them on a work-stealing pool. The ordered tile list is divided
+// recursively, so each worker processes a contiguous run of tiles while idle workers steal the largest remaining runs.
+// The pool is started once and reused by every run until the scheduler is closed.
+public class TileScheduler implements AutoCloseable {
+
+    private final List<Tile> tiles;
+    private final ForkJoinPool pool;
+
+    public TileScheduler(int width, int height, int tileSize, TileOrder order, int parallelism) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tile size must be positive.");
+        }
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        this.tiles = new ArrayList<>(tilesX * tilesY);
+        for (int[] cell: orderCells(tilesX, tilesY, order)) {
+            int x = cell[0] * tileSize;
+            int y = cell[1] * tileSize;
+            tiles.add(new Tile(tiles.size(), x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+        }
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public List<Tile> tiles() {
+        return new ArrayList<>(this.tiles);
+    }
+
+    public void run(TileTask task) {
+        pool.invoke(new TileRange(task, 0, tiles.size()));
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static List<int[]> orderCells(int tilesX, int tilesY, TileOrder order) {
+        List<int[]> cells = new ArrayList<>(tilesX * tilesY);
+        if (order == TileOrder.SCANLINE) {
+            for (int y = 0; y < tilesY; y++) {
+                for (int x = 0; x < tilesX; x++) {
+                    cells.add(new int[]{x, y});
+                }
+            }
+            return cells;
+        }
+        // Walk the curve over the enclosing power-of-two square and keep the cells that fall inside the grid.
+        int side = Integer.highestOneBit(Math.max(1, Math.max(tilesX, tilesY) - 1)) << 1;
+        long length = (long) side * side;
+        for (long d = 0; d < length; d++) {
+            int[] cell = order == TileOrder.HILBERT ? hilbertCell(side, d) : mortonCell(d);
+            if (cell[0] < tilesX && cell[1] < tilesY) {
+                cells.add(cell);
+            }
+        }
+        return cells;
+    }
+
+    private static int[] mortonCell(long d) {
+        return new int[]{compactBits(d), compactBits(d >> 1)};
+    }
+
+    private static int compactBits(long d) {
+        int result = 0;
+        for (int bit = 0; bit < 31; bit++) {
+            result |= (int) ((d >> (2 * bit)) & 1) << bit;
+        }
+        return result;
+    }
+
+    private static int[] hilbertCell(int side, long d) {
+        int x = 0;
+        int y = 0;
+        long t = d;
+        for (int s = 1; s < side; s *= 2) {
+            int rx = (int) (1 & (t / 2));
+            int ry = (int) (1 & (t ^ rx));
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int tmp = x;
+                x = y;
+                y = tmp;
+            }
+            x += s * rx;
+            y += s * ry;
+            t /= 4;
+        }
+        return new int[]{x, y};
+    }
+
+    public interface TileTask {
+        void render(Tile tile);
+    }
+
+    private class TileRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final TileTask task;
+        private final int start;
+        private final int end;
+
+        TileRange(TileTask task, int start, int end) {
+            this.task = task;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                task.render(tiles.get(start));
+            } else if (end - start > 1) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new TileRange(task, start, mid), new TileRange(task, mid, end));
+            }
+        }
+    }
+
+    public static class Tile {
+        private final int index;
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+
+        public Tile(int index, int x, int y, int width, int height) {
+            this.index = index;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int index() {
+            return this.index;
+        }
+
+        public int x() {
+            return this.x;
+        }
+
+        public int y() {
+            return this.y;
+        }
+
+        public int width() {
+            return this.width;
+        }
+
+        public int height() {
+            return this.height;
+        }
+
+        public int pixelCount() {
+            return this.width * this.height;
+        }
+    }
+}
@@ -1,34 +1,35 @@
 package tracer;
 
 import com.github.jordanpottruff.jgml.Mat4;
-import com.github.jordanpottruff.jgml.Vec2;
 import com.github.jordanpottruff.jgml.Vec3;
-import com.github.jordanpottruff.jgml.Vec4;
-import common.Face;
 import common.LightSource;
-import common.Model;
+import common.Material;
+import renderer.FrameBuffer;
 import renderer.Renderer;
 import world.World;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Tracer {
 
-    private static final double EPSILON = .0001;
-    private static final double REFLECTION_CUTOFF = 0.01;
+    static final double EPSILON = .0001;
+    // Index of the random number used for Russian roulette at a point; light samples use 0 and up.
+    static final int ROULETTE_SAMPLE = -1;
+    // Lower bound on the cosine used to widen a pixel's footprint on surfaces seen at grazing angles.
+    static final double MIN_FOOTPRINT_COSINE = 0.05;
 
     private final World world;
+    private final TwoLevelBVH hierarchy;
     private final int width;
     private final int height;
     private final Vec3 skyColor;
     private final Vec3 ambientColor;
-    private final double aspectRatio;
+    private final TracerConfig config;
+    private final LongAdder[] raysPerDepth;
+    private final LongAdder rasterizedRays = new LongAdder();
+    private final LongAdder shadowRays = new LongAdder();
+    private long samplesTaken;
     private int pixelsComplete = 0;
     private double percentComplete = 0;
 
@@ -37,117 +38,390 @@ public class Tracer {
     }
 
     public Tracer(World world, int width, int height, Vec3 skyColor, Vec3 ambientColor) {
+        this(world, width, height, skyColor, ambientColor, TracerConfig.defaults());
+    }
+
+    public Tracer(World world, int width, int height, Vec3 skyColor, Vec3 ambientColor, TracerConfig config) {
+        this(world, null, width, height, skyColor, ambientColor, config);
+    }
+
+    // Traces a prebuilt hierarchy, e.g. one loaded from a scene file, instead of compiling a world on every trace.
+    public Tracer(BVH hierarchy, int width, int height, Vec3 skyColor, Vec3 ambientColor, TracerConfig config) {
+        this(null, hierarchy, width, height, skyColor, ambientColor, config);
+    }
+
+    private Tracer(World world, BVH hierarchy, int width, int height, Vec3 skyColor, Vec3 ambientColor, TracerConfig config) {
         this.world = world;
+        this.hierarchy = hierarchy == null ? null : TwoLevelBVH.of(hierarchy);
         this.width = width;
         this.height = height;
         this.skyColor = skyColor;
         this.ambientColor = ambientColor;
-        this.aspectRatio = (double) width / height;
+        this.config = config;
+        this.raysPerDepth = new LongAdder[config.maxDepth()];
+        for (int depth = 0; depth < raysPerDepth.length; depth++) {
+            this.raysPerDepth[depth] = new LongAdder();
+        }
     }
 
     public Renderer trace(Mat4 transform, double fov, int samples) {
-        Set<Model> models = world.models();
-        Set<LightSource> lights = world.lights();
+        return trace(new Camera(transform, fov, width, height), samples);
+    }
 
-        List<int[]> pixels = new ArrayList<>();
-        for(int x=0; x<width; x++) {
-            for(int y=0; y<height; y++) {
-                pixels.add(new int[]{x, y});
-            }
+    public Renderer trace(Camera camera, int samples) {
+        if (samples < 1) {
+            throw new IllegalArgumentException("At least one sample per pixel is required.");
         }
+        checkCamera(camera);
+        TwoLevelBVH bvh = buildHierarchy();
+        LightTree lights = LightTree.build(bvh.lights());
+        VisibilityBuffer visibility = buildVisibility(bvh, camera);
 
-        ExecutorService executor = Executors.newFixedThreadPool(5);
-        Sampler sampler = new Sampler();
-        Renderer renderer = new Renderer(width, height);
+        FrameBuffer frameBuffer = new FrameBuffer(width, height);
         ProgressTracker tracker = new ProgressTracker(width*height, 5);
-        for(final int[] pixel: pixels) {
-            executor.execute(() -> {
-                Sampler.PixelSample pixelSample = sampler.multiJitterPixel(pixel[0], pixel[1], samples);
-                Vec3 color = new Vec3(0, 0, 0);
-                for(Vec2 sample: pixelSample.points()) {
-                    Ray ray = getRay(transform, fov, sample.x(), sample.y());
-                    color = color.add(tracePixel(ray, models, lights));
-                }
-                color = color.scale(1.0 / samples);
-                synchronized(renderer) {
-                    renderer.setColor(pixelSample.pixelX(), pixelSample.pixelY(), color);
+        resetRayCounts();
+        try (TileScheduler scheduler = newScheduler()) {
+            renderPass(scheduler, frameBuffer, bvh, lights, visibility, camera, samples, -1, config.adaptive(), tracker);
+        }
+        this.samplesTaken = frameBuffer.totalSamples();
+        printRayCounts();
+        return frameBuffer.toRenderer();
+    }
+
+    // Renders the frame one sample per pixel at a time, handing the accumulated frame to the listener after each pass
+    // until it returns false or maxPasses passes are done.
+    public FrameBuffer traceProgressive(Mat4 transform, double fov, int maxPasses, PassListener listener) {
+        return traceProgressive(new Camera(transform, fov, width, height), maxPasses, listener);
+    }
+
+    public FrameBuffer traceProgressive(Camera camera, int maxPasses, PassListener listener) {
+        checkCamera(camera);
+        TwoLevelBVH bvh = buildHierarchy();
+        LightTree lights = LightTree.build(bvh.lights());
+        VisibilityBuffer visibility = buildVisibility(bvh, camera);
+
+        FrameBuffer frameBuffer = new FrameBuffer(width, height);
+        resetRayCounts();
+        try (TileScheduler scheduler = newScheduler()) {
+            for(int pass=1; pass<=maxPasses; pass++) {
+                renderPass(scheduler, frameBuffer, bvh, lights, visibility, camera, 1, pass - 1, false, null);
+                if (!listener.onPass(pass, frameBuffer)) {
+                    break;
                 }
+            }
+        }
+        printRayCounts();
+        return frameBuffer;
+    }
 
-                Optional<Integer> progress = tracker.incrementComplete();
-                progress.ifPresent(integer -> System.out.println(integer + "%"));
-            });
+    private TileScheduler newScheduler() {
+        return new TileScheduler(width, height, config.tileSize(), config.tileOrder(), config.parallelism());
+    }
+
+    private TwoLevelBVH buildHierarchy() {
+        if (hierarchy != null) {
+            return hierarchy;
+        }
+        TwoLevelBVH bvh = TwoLevelBVH.build(world);
+        System.out.println(bvh.stats());
+        return bvh;
+    }
+
+    private void checkCamera(Camera camera) {
+        if (camera.width() != width || camera.height() != height) {
+            throw new IllegalArgumentException("The camera's image size must match the tracer's.");
         }
+    }
 
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(24, TimeUnit.HOURS)) {
-                executor.shutdownNow();
-            };
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            executor.shutdownNow();
+    // Camera rays share an origin only without a lens, so only then can they be rasterized.
+    private VisibilityBuffer buildVisibility(TwoLevelBVH bvh, Camera camera) {
+        if (!config.rasterizePrimary() || camera.hasLens()) {
+            return null;
         }
-        return renderer;
+        return VisibilityBuffer.build(bvh, camera, config.tileSize());
     }
 
-    private Vec3 tracePixel(Ray ray, Set<Model> models, Set<LightSource> lights) {
-        return tracePixel(ray, models, lights, 1.0);
+    // Adds a batch of samples to every pixel. A non-negative pass takes the single sample of that index from each
+    // pixel's open-ended sequence; otherwise multi-jittered batches are taken. With refine set, each pixel keeps taking
+    // batches until it converges; otherwise, in adaptive mode, pixels that have already converged are skipped. With a
+    // visibility buffer, the first hits of each pixel's first batch are rasterized rather than traced.
+    private void renderPass(TileScheduler scheduler, FrameBuffer frameBuffer, TwoLevelBVH bvh, LightTree lights,
+                            VisibilityBuffer visibility, Camera camera, int samples, int pass, boolean refine,
+                            ProgressTracker tracker) {
+        Sampler sampler = new Sampler(config.seed());
+        double spread = camera.pixelSpread();
+        ThreadLocal<Wavefront> wavefronts = ThreadLocal.withInitial(() ->
+                new Wavefront(this, bvh, lights, visibility, sampler, spread));
+        ThreadLocal<VisibilityBuffer.Samples> primary = ThreadLocal.withInitial(VisibilityBuffer.Samples::new);
+        scheduler.run(tile -> {
+            if (config.engine() == Engine.WAVEFRONT) {
+                wavefronts.get().render(tile, frameBuffer, camera, samples, pass, refine);
+            } else {
+                VisibilityBuffer.Samples first = null;
+                if (visibility != null) {
+                    first = primary.get();
+                    resolvePrimary(tile, frameBuffer, visibility, first, sampler, camera, samples, pass, refine);
+                }
+                renderTile(tile, frameBuffer, bvh, lights, first, sampler, spread, camera, samples, pass, refine);
+            }
+
+            if (tracker != null) {
+                Optional<Integer> progress = tracker.incrementComplete(tile.pixelCount());
+                progress.ifPresent(integer -> System.out.println(integer + "%"));
+            }
+        });
     }
 
-    private Vec3 tracePixel(Ray ray, Set<Model> models, Set<LightSource> lights, double power) {
-        if (power < REFLECTION_CUTOFF) {
-            return new Vec3(0, 0, 0);
+    // Renders the pixels of a tile. Given the resolved first batch of the tile's camera rays, the first hits of that
+    // batch are taken from it in the order resolvePrimary added the rays.
+    private void renderTile(TileScheduler.Tile tile, FrameBuffer frameBuffer, TwoLevelBVH bvh, LightTree lights,
+                            VisibilityBuffer.Samples primary, Sampler sampler, double spread, Camera camera,
+                            int samples, int pass, boolean refine) {
+        double[] points = new double[2 * samples];
+        double[] ray = new double[6];
+        Hit hit = Hit.local();
+        int next = 0;
+        for(int y=tile.y(); y<tile.y()+tile.height(); y++) {
+            for(int x=tile.x(); x<tile.x()+tile.width(); x++) {
+                if (config.adaptive() && !refine && frameBuffer.sampleCount(x, y) > 0 && !needsSamples(frameBuffer, x, y)) {
+                    continue;
+                }
+                int batch = 0;
+                do {
+                    if (pass >= 0) {
+                        sampler.haltonPixel(x, y, pass, points);
+                    } else {
+                        sampler.multiJitterPixel(x, y, samples, batch, points);
+                    }
+                    for(int i=0; i<samples; i++) {
+                        Optional<Intersection> first = primary != null && batch == 0
+                                ? primary.first(next++, bvh, hit) : null;
+                        if (first == null) {
+                            camera.ray(points[2*i], points[2*i + 1], sampler, ray, 0);
+                            first = getClosest(ray, bvh, hit);
+                        }
+                        frameBuffer.addSample(x, y, tracePixel(first, bvh, lights, sampler, spread));
+                    }
+                    batch++;
+                } while (refine && needsSamples(frameBuffer, x, y));
+            }
         }
-        Optional<Intersection> closest = getClosest(ray, models, null);
-        return closest.map(intersection -> {
-            Vec3 surfaceColor = getLight(intersection, models, lights, intersection.model());
-            Ray reflectionRay = ray.reflect(intersection.point(), intersection.normal());
-            double reflectance = intersection.reflectance();
-            Vec3 reflection = tracePixel(reflectionRay, models, lights, power*reflectance);
-            return surfaceColor.scale(1-reflectance).add(reflection.scale(reflectance));
-        }).orElse(this.skyColor);
     }
 
+    // Rasterizes the camera rays of the first batch renderTile will take in a tile.
+    private void resolvePrimary(TileScheduler.Tile tile, FrameBuffer frameBuffer, VisibilityBuffer visibility,
+                                VisibilityBuffer.Samples primary, Sampler sampler, Camera camera, int samples,
+                                int pass, boolean refine) {
+        double[] points = new double[2 * samples];
+        double[] ray = new double[6];
+        primary.clear();
+        for(int y=tile.y(); y<tile.y()+tile.height(); y++) {
+            for(int x=tile.x(); x<tile.x()+tile.width(); x++) {
+                if (config.adaptive() && !refine && frameBuffer.sampleCount(x, y) > 0 && !needsSamples(frameBuffer, x, y)) {
+                    continue;
+                }
+                if (pass >= 0) {
+                    sampler.haltonPixel(x, y, pass, points);
+                } else {
+                    sampler.multiJitterPixel(x, y, samples, 0, points);
+                }
+                for(int i=0; i<samples; i++) {
+                    camera.ray(points[2*i], points[2*i + 1], sampler, ray, 0);
+                    primary.add(x, y, points[2*i], points[2*i + 1], ray, 0);
+                }
+            }
+        }
+        countRasterized(visibility.resolve(tile, primary));
+    }
+
+    boolean needsSamples(FrameBuffer frameBuffer, int x, int y) {
+        return frameBuffer.sampleCount(x, y) < config.maxSamples() &&
+                frameBuffer.standardError(x, y) > config.noiseThreshold();
+    }
+
+    // Follows a path from the camera through its reflections, given the camera ray's first hit (empty for a miss). Each
+    // surface adds its own color scaled by the share of the path's throughput it does not reflect, and the reflected
+    // share carries on along the reflected ray. The distance travelled widens the pixel footprint used to filter
+    // textures as if reflections were flat.
+    private Vec3 tracePixel(Optional<Intersection> first, TwoLevelBVH bvh, LightTree lights, Sampler sampler,
+                            double spread) {
+        double r = 0, g = 0, b = 0;
+        double throughput = 1.0;
+        double distance = 0.0;
+        Ray ray = null;
+        for (int depth = 0; depth < config.maxDepth(); depth++) {
+            raysPerDepth[depth].increment();
+            Optional<Intersection> closest = depth == 0 ? first : getClosest(ray, bvh, -1);
+            if (closest.isEmpty()) {
+                r += throughput * skyColor.x();
+                g += throughput * skyColor.y();
+                b += throughput * skyColor.z();
+                break;
+            }
+            Intersection intersection = closest.get();
+            Vec3 normal = intersection.normal();
+            distance += intersection.t();
+            double cosine = Math.abs(normal.dot(intersection.ray().direction().normalize()));
+            double footprint = distance * spread / Math.max(cosine, MIN_FOOTPRINT_COSINE);
+            Vec3 surfaceColor = getLight(intersection, bvh, lights, sampler, intersection.modelIndex(), footprint);
+            double reflectance = intersection.reflectance();
+            r += throughput * (1 - reflectance) * surfaceColor.x();
+            g += throughput * (1 - reflectance) * surfaceColor.y();
+            b += throughput * (1 - reflectance) * surfaceColor.z();
 
-    private Optional<Intersection> getClosest(Ray ray, Set<Model> models, Model ignore) {
-        Intersection closest = null;
-        for(Model model: models) {
-            if (model.equals(ignore)) {
-                continue;
+            throughput *= reflectance;
+            if (throughput <= 0) {
+                break;
             }
-            for(Face face: model.faces()) {
-                Optional<Intersection> intersection = ray.getIntersection(face, model, EPSILON);
-                if (intersection.isPresent()) {
-                    Intersection inter = intersection.get();
-                    closest = closest == null || closest.t() > inter.t() ? inter : closest;
+            if (throughput < config.rouletteThreshold()) {
+                Vec3 point = intersection.point();
+                double survival = throughput / config.rouletteThreshold();
+                if (sampler.random(point.x(), point.y(), point.z(), ROULETTE_SAMPLE) >= survival) {
+                    break;
                 }
+                throughput /= survival;
             }
+            ray = intersection.ray().reflect(intersection.point(), normal);
+        }
+        return new Vec3(r, g, b);
+    }
+
+    // The number of rays traced at each depth (0 for camera rays) by the last call to trace or traceProgressive.
+    public long[] raysPerDepth() {
+        long[] counts = new long[raysPerDepth.length];
+        for (int depth = 0; depth < counts.length; depth++) {
+            counts[depth] = raysPerDepth[depth].sum();
         }
-        return closest == null ? Optional.empty() : Optional.of(closest);
+        return counts;
     }
 
-    private Vec3 getLight(Intersection intersection, Set<Model> models, Set<LightSource> lights, Model ignore) {
+    // The number of samples taken over all pixels by the last call to trace, which with adaptive sampling varies from
+    // pixel to pixel. FrameBuffer.totalSamples gives the same for traceProgressive.
+    public long samplesTaken() {
+        return this.samplesTaken;
+    }
+
+    // The number of shadow rays traced by the last call to trace or traceProgressive.
+    public long shadowRays() {
+        return shadowRays.sum();
+    }
+
+    void countRays(int depth, int count) {
+        raysPerDepth[depth].add(count);
+    }
+
+    void countShadowRays(int count) {
+        shadowRays.add(count);
+    }
+
+    void countRasterized(int count) {
+        rasterizedRays.add(count);
+    }
+
+    TracerConfig config() {
+        return this.config;
+    }
+
+    Vec3 skyColor() {
+        return this.skyColor;
+    }
+
+    Vec3 ambientColor() {
+        return this.ambientColor;
+    }
+
+    private void resetRayCounts() {
+        for (LongAdder count: raysPerDepth) {
+            count.reset();
+        }
+        rasterizedRays.reset();
+        shadowRays.reset();
+    }
+
+    private void printRayCounts() {
+        long[] counts = raysPerDepth();
+        StringBuilder sb = new StringBuilder("Rays per depth:");
+        for (int depth = 0; depth < counts.length && counts[depth] > 0; depth++) {
+            sb.append(depth == 0 ? " " : ", ").append(counts[depth]);
+        }
+        if (config.rasterizePrimary()) {
+            sb.append(" (").append(rasterizedRays.sum()).append(" camera rays rasterized)");
+        }
+        sb.append("; ").append(shadowRays.sum()).append(" shadow rays");
+        System.out.println(sb);
+    }
+
+    private Optional<Intersection> getClosest(Ray ray, TwoLevelBVH bvh, int ignore) {
+        return bvh.closest(ray, ignore, EPSILON);
+    }
+
+    // The first hit of a camera ray written by Camera.ray. Only a hit makes a Ray, which the intersection keeps.
+    private Optional<Intersection> getClosest(double[] ray, TwoLevelBVH bvh, Hit hit) {
+        if (!bvh.closest(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5], -1, EPSILON, hit)) {
+            return Optional.empty();
+        }
+        Ray camera = new Ray(new Vec3(ray[0], ray[1], ray[2]), new Vec3(ray[3], ray[4], ray[5]));
+        return Optional.of(Intersection.fromHit(camera, bvh, hit));
+    }
+
+    private Vec3 getLight(Intersection intersection, TwoLevelBVH bvh, LightTree lights, Sampler sampler, int ignore,
+                          double footprint) {
         Vec3 origin = intersection.ray().origin();
         Vec3 point = intersection.point();
         Vec3 normal = intersection.normal();
-        Vec3 surfaceColor = intersection.color();
-        Face face = intersection.face();
+        Vec3 surfaceColor = intersection.color(footprint);
+        Material material = intersection.material();
 
-        double specRatio = face.specularRatio();
-        double diffRatio = face.diffuseRatio();
+        double specRatio = material.specularRatio();
+        double diffRatio = material.diffuseRatio();
         double ambientRatio = Math.max(1.0 - specRatio - diffRatio, 0.0);
         Vec3 colorTotal = this.ambientColor.scale(ambientRatio);
-        for (LightSource light: lights) {
-            if (hasPathToLight(point, light, models, ignore)) {
-                Vec3 diffuse = getDiffuse(point, light, normal);
-                Vec3 specular = getSpecular(origin, point, normal, light, face.shine());
-                colorTotal = colorTotal.add(diffuse.scale(diffRatio).add(specular.scale(specRatio)));
+        int samples = config.lightSamples();
+        boolean sampleLights = samplesLights(lights);
+        if (!sampleLights) {
+            for (LightSource light: lights.lights()) {
+                if (hasPathToLight(point, light, bvh, ignore)) {
+                    colorTotal = colorTotal.add(getDirect(origin, point, normal, light, material));
+                }
+            }
+        } else {
+            // The samples are stratified over [0, 1) and each light drawn is weighted by one over its probability.
+            double[] probability = Hit.local().probability;
+            for (int s = 0; s < samples; s++) {
+                double u = (s + sampler.random(point.x(), point.y(), point.z(), s)) / samples;
+                LightSource light = lights.lights()[lights.sample(point.x(), point.y(), point.z(), u, probability)];
+                if (hasPathToLight(point, light, bvh, ignore)) {
+                    double weight = 1.0 / (samples * probability[0]);
+                    colorTotal = colorTotal.add(getDirect(origin, point, normal, light, material).scale(weight));
+                }
             }
         }
-        double r = Math.min(surfaceColor.x() * colorTotal.x(), 1.0);
-        double g = Math.min(surfaceColor.y() * colorTotal.y(), 1.0);
-        double b = Math.min(surfaceColor.z() * colorTotal.z(), 1.0);
-        return new Vec3(r, g, b);
+        return shade(surfaceColor, colorTotal, sampleLights);
+    }
+
+    // Whether points are shaded with a sample of the lights rather than with every light.
+    boolean samplesLights(LightTree lights) {
+        int samples = config.lightSamples();
+        return samples > 0 && samples < lights.size();
+    }
+
+    // The light leaving a surface of the given color under the given light. Shading with every light clamps each
+    // channel at 1 here, as it always has; with sampled lights the weighted sum is left unclamped, since clamping each
+    // estimate would bias the average darker, and the frame buffer clamps the resolved color instead.
+    static Vec3 shade(Vec3 surfaceColor, Vec3 light, boolean sampleLights) {
+        double r = surfaceColor.x() * light.x();
+        double g = surfaceColor.y() * light.y();
+        double b = surfaceColor.z() * light.z();
+        if (sampleLights) {
+            return new Vec3(r, g, b);
+        }
+        return new Vec3(Math.min(r, 1.0), Math.min(g, 1.0), Math.min(b, 1.0));
+    }
+
+    Vec3 getDirect(Vec3 origin, Vec3 point, Vec3 normal, LightSource light, Material material) {
+        Vec3 diffuse = getDiffuse(point, light, normal);
+        Vec3 specular = getSpecular(origin, point, normal, light, material.shine());
+        return diffuse.scale(material.diffuseRatio()).add(specular.scale(material.specularRatio()));
     }
 
     private Vec3 getDiffuse(Vec3 point, LightSource light, Vec3 normal) {
@@ -170,29 +444,16 @@ public class Tracer {
         return light.color().scale(specular);
     }
 
-    private boolean hasPathToLight(Vec3 point, LightSource light, Set<Model> models, Model ignore) {
-        Vec3 path = light.position().subtract(point);
-        Ray ray = new Ray(point, path.normalize());
-
-        Optional<Intersection> closest = getClosest(ray, models, ignore);
-        if (closest.isPresent()) {
-            return closest.get().t() > path.magnitude();
-        } else {
-            return true;
-        }
-    }
-
-    private Ray getRay(Mat4 transform, double fov, double x, double y) {
-        double pixelX = (2 * (x / width) - 1) * Math.tan(fov / 2 * Math.PI / 180) * aspectRatio;
-        double pixelY = (1 - 2 * (y / height)) * Math.tan(fov/ 2 * Math.PI / 180);
-        Vec4 pixel = new Vec4(pixelX, pixelY, -1, 1);
-        Vec4 origin = new Vec4(0, 0, 0, 1);
-
-        Vec3 pixelWorld = new Vec3(transform.multiply(pixel));
-        Vec3 originWorld = new Vec3(transform.multiply(origin));
+    private boolean hasPathToLight(Vec3 point, LightSource light, TwoLevelBVH bvh, int ignore) {
+        Vec3 lightPosition = light.position();
+        double dx = lightPosition.x() - point.x();
+        double dy = lightPosition.y() - point.y();
+        double dz = lightPosition.z() - point.z();
+        double distance = Math.sqrt(dx*dx + dy*dy + dz*dz);
 
-        Vec3 rayDirection = pixelWorld.subtract(originWorld).normalize();
-        return new Ray(originWorld, rayDirection);
+        shadowRays.increment();
+        return !bvh.occluded(point.x(), point.y(), point.z(), dx / distance, dy / distance, dz / distance, distance,
+                ignore, EPSILON, Hit.local());
     }
 
     class ProgressTracker {
@@ -209,8 +470,8 @@ public class Tracer {
             this.lastInterval = 0;
         }
 
-        public synchronized Optional<Integer> incrementComplete() {
-            complete++;
+        public synchronized Optional<Integer> incrementComplete(int amount) {
+            complete += amount;
             return checkProgress();
         }
 
@@ -0,0 +1,186 @@
+package tracer;
+
+// Tuning options for a Tracer. Build with TracerConfig.Builder; unset options keep their defaults.
+public class TracerConfig {
+
+    private final int tileSize;
+    private final TileOrder tileOrder;
+    private final int parallelism;
+    private final double noiseThreshold;
+    private final int maxSamples;
+    private final long seed;
+    private final int lightSamples;
+    private final int maxDepth;
+    private final double rouletteThreshold;
+    private final Engine engine;
+    private final boolean rasterizePrimary;
+
+    private TracerConfig(Builder builder) {
+        this.tileSize = builder.tileSize;
+        this.tileOrder = builder.tileOrder;
+        this.parallelism = builder.parallelism;
+        this.noiseThreshold = builder.noiseThreshold;
+        this.maxSamples = builder.maxSamples;
+        this.seed = builder.seed;
+        this.lightSamples = builder.lightSamples;
+        this.maxDepth = builder.maxDepth;
+        this.rouletteThreshold = builder.rouletteThreshold;
+        this.engine = builder.engine;
+        this.rasterizePrimary = builder.rasterizePrimary;
+    }
+
+    public static TracerConfig defaults() {
+        return new Builder().build();
+    }
+
+    public int tileSize() {
+        return this.tileSize;
+    }
+
+    public TileOrder tileOrder() {
+        return this.tileOrder;
+    }
+
+    public int parallelism() {
+        return this.parallelism;
+    }
+
+    public boolean adaptive() {
+        return this.maxSamples > 0;
+    }
+
+    public double noiseThreshold() {
+        return this.noiseThreshold;
+    }
+
+    public int maxSamples() {
+        return this.maxSamples;
+    }
+
+    public long seed() {
+        return this.seed;
+    }
+
+    // The number of lights sampled per shading point, or 0 to shade with every light.
+    public int lightSamples() {
+        return this.lightSamples;
+    }
+
+    // The most surfaces a path visits: 1 for no reflections.
+    public int maxDepth() {
+        return this.maxDepth;
+    }
+
+    // The path throughput below which Russian roulette may end a path, or 0 for none.
+    public double rouletteThreshold() {
+        return this.rouletteThreshold;
+    }
+
+    public Engine engine() {
+        return this.engine;
+    }
+
+    public boolean rasterizePrimary() {
+        return this.rasterizePrimary;
+    }
+
+    public static class Builder {
+        private int tileSize = 16;
+        private TileOrder tileOrder = TileOrder.HILBERT;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private double noiseThreshold = 0.0;
+        private int maxSamples = 0;
+        private long seed = 0;
+        private int lightSamples = 0;
+        private int maxDepth = 32;
+        private double rouletteThreshold = 0.01;
+        private Engine engine = Engine.DEPTH_FIRST;
+        private boolean rasterizePrimary = false;
+
+        public Builder tileSize(int tileSize) {
+            if (tileSize < 1) {
+                throw new IllegalArgumentException("Tile size must be positive.");
+            }
+            this.tileSize = tileSize;
+            return this;
+        }
+
+        public Builder tileOrder(TileOrder tileOrder) {
+            this.tileOrder = tileOrder;
+            return this;
+        }
+
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be positive.");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        // Enables adaptive sampling: after the initial batch, a pixel keeps taking further batches while the standard
+        // error of its mean luminance exceeds noiseThreshold, up to maxSamples samples.
+        public Builder adaptiveSampling(double noiseThreshold, int maxSamples) {
+            if (noiseThreshold <= 0 || maxSamples < 2) {
+                throw new IllegalArgumentException("Adaptive sampling needs a positive threshold and at least 2 samples.");
+            }
+            this.noiseThreshold = noiseThreshold;
+            this.maxSamples = maxSamples;
+            return this;
+        }
+
+        // Seeds the sample patterns; renders with equal seeds and settings take identical samples.
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        // Shades each point with the given number of lights drawn from a LightTree, weighted so that the expected
+        // result equals shading with every light. The estimates are not clamped per point, only the resolved pixel is.
+        // Scenes with no more lights than that are shaded with every light.
+        public Builder lightSamples(int lightSamples) {
+            if (lightSamples < 0) {
+                throw new IllegalArgumentException("Light samples must not be negative.");
+            }
+            this.lightSamples = lightSamples;
+            return this;
+        }
+
+        // Ends every path after it has visited the given number of surfaces.
+        public Builder maxDepth(int maxDepth) {
+            if (maxDepth < 1) {
+                throw new IllegalArgumentException("Max depth must be at least 1.");
+            }
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        // Once a path's throughput falls below the threshold, it continues with probability throughput / threshold
+        // and, if it does, its throughput is divided by that probability, so the expected color is unchanged. A
+        // threshold of 0 disables Russian roulette; paths then end only at the max depth or when nothing reflects.
+        public Builder russianRoulette(double threshold) {
+            if (threshold < 0 || threshold > 1) {
+                throw new IllegalArgumentException("Roulette threshold must be between 0 and 1.");
+            }
+            this.rouletteThreshold = threshold;
+            return this;
+        }
+
+        public Builder engine(Engine engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        // Finds the first hit of each camera ray by rasterizing the scene into a visibility buffer (see
+        // VisibilityBuffer) rather than by traversing the hierarchy. Only shadow and reflected rays are then traced.
+        // Ignored for a camera with a lens, whose rays do not share an origin.
+        public Builder rasterizePrimary(boolean rasterizePrimary) {
+            this.rasterizePrimary = rasterizePrimary;
+            return this;
+        }
+
+        public TracerConfig build() {
+            return new TracerConfig(this);
+        }
+    }
+}
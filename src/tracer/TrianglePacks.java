@@ -0,0 +1,113 @@
+package tracer;
+
+import world.CompiledWorld;
+
+// Copy of the faces of a BVH laid out for VectorTriangles. The faces of each leaf are split into blocks of LANES, and
+// a block stores each of the nine doubles of a CompiledWorld triangle as LANES consecutive values (every v1.x, then
+// every v1.y, and so on), so one vector load reads a component of all its faces. Lanes past the end of a leaf hold a
+// degenerate triangle and face -1.
+//
+// The vector kernel needs the incubating jdk.incubator.vector module, which must be both compiled against and enabled
+// at run time with --add-modules jdk.incubator.vector. Whether it is usable is detected reflectively once; without it,
+// on hardware with vectors narrower than LANES doubles, or with -Dtracer.vector=false, no packs are built and BVH uses
+// the scalar Triangles test.
+class TrianglePacks {
+
+    static final int LANES = 4;
+    static final int BLOCK_SIZE = LANES * CompiledWorld.TRIANGLE_STRIDE;
+    static final boolean ENABLED = detect();
+
+    final double[] blocks;
+    // Per lane of each block: the face it holds, or -1.
+    final int[] faces;
+    // Per block: bitmask of the lanes holding a face.
+    private final long[] occupied;
+    // Per node: the first block of a leaf (unused for interior nodes).
+    final int[] leafBlocks;
+
+    private TrianglePacks(double[] blocks, int[] faces, long[] occupied, int[] leafBlocks) {
+        this.blocks = blocks;
+        this.faces = faces;
+        this.occupied = occupied;
+        this.leafBlocks = leafBlocks;
+    }
+
+    // Packs the faces of every leaf of a hierarchy's nodes (laid out as in BVH), or returns null if the vector
+    // kernel is not available.
+    static TrianglePacks build(CompiledWorld scene, int[] nodes, int nodeCount) {
+        if (!ENABLED || scene == null) {
+            return null;
+        }
+        int[] leafBlocks = new int[nodeCount];
+        int blockCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            int count = nodes[node*3 + 1];
+            if (count > 0) {
+                leafBlocks[node] = blockCount;
+                blockCount += blockCount(count);
+            }
+        }
+
+        double[] triangles = scene.triangles();
+        double[] blocks = new double[blockCount * BLOCK_SIZE];
+        int[] faces = new int[blockCount * LANES];
+        long[] occupied = new long[blockCount];
+        for (int node = 0; node < nodeCount; node++) {
+            int count = nodes[node*3 + 1];
+            if (count == 0) {
+                continue;
+            }
+            int first = nodes[node*3];
+            for (int block = leafBlocks[node]; block < leafBlocks[node] + blockCount(count); block++) {
+                for (int lane = 0; lane < LANES; lane++) {
+                    int index = (block - leafBlocks[node]) * LANES + lane;
+                    if (index >= count) {
+                        faces[block*LANES + lane] = -1;
+                        continue;
+                    }
+                    int face = first + index;
+                    faces[block*LANES + lane] = face;
+                    occupied[block] |= 1L << lane;
+                    for (int component = 0; component < CompiledWorld.TRIANGLE_STRIDE; component++) {
+                        blocks[block*BLOCK_SIZE + component*LANES + lane] =
+                                triangles[face*CompiledWorld.TRIANGLE_STRIDE + component];
+                    }
+                }
+            }
+        }
+        return new TrianglePacks(blocks, faces, occupied, leafBlocks);
+    }
+
+    static int blockCount(int faceCount) {
+        return (faceCount + LANES - 1) / LANES;
+    }
+
+    // Bitmask of the lanes of a block holding a face that does not belong to the model at index ignore.
+    long lanes(int block, int[] faceModels, int ignore) {
+        long lanes = occupied[block];
+        if (ignore < 0) {
+            return lanes;
+        }
+        for (int lane = 0; lane < LANES; lane++) {
+            int face = faces[block*LANES + lane];
+            if (face >= 0 && faceModels[face] == ignore) {
+                lanes &= ~(1L << lane);
+            }
+        }
+        return lanes;
+    }
+
+    private static boolean detect() {
+        if (!Boolean.parseBoolean(System.getProperty("tracer.vector", "true")) ||
+                ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            // Only loaded here, so a run without the module never links against it.
+            Class<?> kernel = Class.forName("tracer.VectorTriangles");
+            return (Boolean) kernel.getDeclaredMethod("supported").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package tracer;
+
+import world.CompiledWorld;
+import world.GeometryStore;
+
+public class Triangles {
+
+    private Triangles() {}
+
+    // Moller-Trumbore test of one ray against one face of a CompiledWorld triangle array. Records the hit and returns
+    // true only if it lies in [epsilon, hit.t), so calling this for a sequence of faces keeps the closest one.
+    public static boolean intersect(double[] triangles, int face, double ox, double oy, double oz,
+                                    double dx, double dy, double dz, double epsilon, Hit hit) {
+        int i = face * CompiledWorld.TRIANGLE_STRIDE;
+        return intersect(face, triangles[i], triangles[i + 1], triangles[i + 2],
+                triangles[i + 3], triangles[i + 4], triangles[i + 5], triangles[i + 6], triangles[i + 7], triangles[i + 8],
+                ox, oy, oz, dx, dy, dz, epsilon, hit);
+    }
+
+    // The same test against a face of a world that may be backed by a store.
+    public static boolean intersect(CompiledWorld scene, int face, double ox, double oy, double oz,
+                                    double dx, double dy, double dz, double epsilon, Hit hit) {
+        return scene.isStored()
+                ? intersect(scene.store().triangles(), face, ox, oy, oz, dx, dy, dz, epsilon, hit)
+                : intersect(scene.triangles(), face, ox, oy, oz, dx, dy, dz, epsilon, hit);
+    }
+
+    // The same test reading the face from a stored triangle table.
+    public static boolean intersect(GeometryStore.Doubles triangles, int face, double ox, double oy, double oz,
+                                    double dx, double dy, double dz, double epsilon, Hit hit) {
+        long i = (long) face * CompiledWorld.TRIANGLE_STRIDE;
+        return intersect(face, triangles.get(i), triangles.get(i + 1), triangles.get(i + 2),
+                triangles.get(i + 3), triangles.get(i + 4), triangles.get(i + 5),
+                triangles.get(i + 6), triangles.get(i + 7), triangles.get(i + 8),
+                ox, oy, oz, dx, dy, dz, epsilon, hit);
+    }
+
+    // The test itself, on a face given as its first vertex and the edges from it to the other two.
+    private static boolean intersect(int face, double v0x, double v0y, double v0z, double e1x, double e1y, double e1z,
+                                     double e2x, double e2y, double e2z, double ox, double oy, double oz,
+                                     double dx, double dy, double dz, double epsilon, Hit hit) {
+        // pvec = direction x e2
+        double px = dy * e2z - dz * e2y;
+        double py = dz * e2x - dx * e2z;
+        double pz = dx * e2y - dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (Math.abs(det) < epsilon) {
+            return false;
+        }
+        double invDet = 1.0 / det;
+
+        double tx = ox - v0x, ty = oy - v0y, tz = oz - v0z;
+        double u = (tx * px + ty * py + tz * pz) * invDet;
+        if (u < 0 || u > 1) {
+            return false;
+        }
+
+        // qvec = tvec x e1
+        double qx = ty * e1z - tz * e1y;
+        double qy = tz * e1x - tx * e1z;
+        double qz = tx * e1y - ty * e1x;
+        double v = (dx * qx + dy * qy + dz * qz) * invDet;
+        if (v < 0 || u + v > 1) {
+            return false;
+        }
+
+        double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+        if (t < epsilon || t >= hit.t) {
+            return false;
+        }
+        hit.t = t;
+        hit.u = u;
+        hit.v = v;
+        hit.face = face;
+        return true;
+    }
+}
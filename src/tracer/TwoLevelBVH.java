@@ -0,0 +1,456 @@
+package tracer;
+
+import com.github.jordanpottruff.jgml.Mat4;
+import com.github.jordanpottruff.jgml.Vec3;
+import com.github.jordanpottruff.jgml.Vec4;
+import common.Instance;
+import common.LightSource;
+import common.Material;
+import common.Model;
+import common.Primitive;
+import world.CompiledWorld;
+import world.World;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+// Two-level acceleration structure. The world's own models are compiled into one base hierarchy as before; each
+// instance references a bottom-level hierarchy built once per distinct model, and a top-level hierarchy is built over
+// the instances' world-space boxes. Rays reaching an instance are moved into its object space, so memory grows with
+// unique geometry rather than with the number of instances.
+//
+// Analytic models (spheres and boxes) are not tessellated: the world's own analytic models become instances with an
+// identity transform, and an analytic instance is tested in closed form in place of a bottom-level hierarchy.
+//
+// Model indices (as used to ignore a model) are those of the base world, followed by one index per instance.
+public class TwoLevelBVH {
+
+    static final int AFFINE_SIZE = 12;
+
+    private final BVH base;
+    private final BVH[] meshes;
+    private final BVH top;
+    // Per instance, in top-level leaf order.
+    private final Instance[] instances;
+    // Per instance: the bottom-level hierarchy, or -1 for an analytic instance.
+    private final int[] instanceMeshes;
+    // Per instance: the analytic shape, or null.
+    private final Primitive[] primitives;
+    private final Material[] materials;
+    // Per instance: the object-to-world and world-to-object transforms as the top three rows of an affine matrix.
+    private final double[] toWorld;
+    private final double[] toObject;
+    private final int firstInstanceModel;
+
+    private TwoLevelBVH(BVH base, BVH[] meshes, BVH top, Instance[] instances, int[] instanceMeshes, double[] toWorld,
+                        double[] toObject) {
+        this.base = base;
+        this.meshes = meshes;
+        this.top = top;
+        this.instances = instances;
+        this.instanceMeshes = instanceMeshes;
+        this.primitives = new Primitive[instances.length];
+        this.materials = new Material[instances.length];
+        for (int i = 0; i < instances.length; i++) {
+            this.primitives[i] = instances[i].model().primitive().orElse(null);
+            this.materials[i] = instances[i].material().orElse(null);
+        }
+        this.toWorld = toWorld;
+        this.toObject = toObject;
+        this.firstInstanceModel = base.scene().modelCount();
+    }
+
+    // Wraps a hierarchy with no instances, e.g. one loaded from a scene file.
+    public static TwoLevelBVH of(BVH base) {
+        return new TwoLevelBVH(base, new BVH[0], null, new Instance[0], new int[0], new double[0], new double[0]);
+    }
+
+    public static TwoLevelBVH build(World world) {
+        Set<Model> meshModels = new HashSet<>();
+        List<Instance> entries = new ArrayList<>();
+        Mat4 identity = new Mat4.TransformBuilder().build();
+        for (Model model: world.models()) {
+            if (model.isAnalytic()) {
+                entries.add(new Instance(model, identity));
+            } else {
+                meshModels.add(model);
+            }
+        }
+        entries.addAll(world.instances());
+        BVH base = BVH.build(CompiledWorld.compile(new World(meshModels, world.lights())));
+        Instance[] unordered = entries.toArray(new Instance[0]);
+        int n = unordered.length;
+        if (n == 0) {
+            return of(base);
+        }
+
+        Map<Model, Integer> meshIndices = new IdentityHashMap<>();
+        List<BVH> meshes = new ArrayList<>();
+        int[] unorderedMeshes = new int[n];
+        double[] unorderedToWorld = new double[n * AFFINE_SIZE];
+        double[] boxes = new double[n * 6];
+        for (int i = 0; i < n; i++) {
+            Model model = unordered[i].model();
+            affine(unordered[i].transform(), unorderedToWorld, i * AFFINE_SIZE);
+            if (model.isAnalytic()) {
+                unorderedMeshes[i] = -1;
+                transformBox(model.primitive().get().bounds(), unorderedToWorld, i * AFFINE_SIZE, boxes, i * 6);
+                continue;
+            }
+            Integer mesh = meshIndices.get(model);
+            if (mesh == null) {
+                mesh = meshes.size();
+                meshIndices.put(model, mesh);
+                meshes.add(BVH.build(CompiledWorld.compile(model)));
+            }
+            unorderedMeshes[i] = mesh;
+            transformBox(meshes.get(mesh).bounds(), unorderedToWorld, i * AFFINE_SIZE, boxes, i * 6);
+        }
+
+        int[] order = new int[n];
+        BVH top = BVH.overBoxes(boxes, n, order);
+        Instance[] instances = new Instance[n];
+        int[] instanceMeshes = new int[n];
+        double[] toWorld = new double[n * AFFINE_SIZE];
+        double[] toObject = new double[n * AFFINE_SIZE];
+        for (int i = 0; i < n; i++) {
+            instances[i] = unordered[order[i]];
+            instanceMeshes[i] = unorderedMeshes[order[i]];
+            System.arraycopy(unorderedToWorld, order[i] * AFFINE_SIZE, toWorld, i * AFFINE_SIZE, AFFINE_SIZE);
+            invert(toWorld, toObject, i * AFFINE_SIZE);
+        }
+        return new TwoLevelBVH(base, meshes.toArray(new BVH[0]), top, instances, instanceMeshes, toWorld, toObject);
+    }
+
+    public LightSource[] lights() {
+        return base.scene().lights();
+    }
+
+    public Stats stats() {
+        long storedFaces = 0;
+        for (BVH mesh: meshes) {
+            storedFaces += mesh.scene().faceCount();
+        }
+        long instancedFaces = 0;
+        int primitiveCount = 0;
+        for (int mesh: instanceMeshes) {
+            if (mesh < 0) {
+                primitiveCount++;
+            } else {
+                instancedFaces += meshes[mesh].scene().faceCount();
+            }
+        }
+        return new Stats(base.stats(), instances.length, meshes.length, storedFaces, instancedFaces, primitiveCount,
+                top == null ? 0 : top.nodeCount());
+    }
+
+    public Optional<Intersection> closest(Ray ray, int ignore, double epsilon) {
+        Hit hit = Hit.local();
+        Vec3 origin = ray.origin();
+        Vec3 direction = ray.direction();
+        if (closest(origin.x(), origin.y(), origin.z(), direction.x(), direction.y(), direction.z(), ignore, epsilon, hit)) {
+            return Optional.of(Intersection.fromHit(ray, this, hit));
+        }
+        return Optional.empty();
+    }
+
+    // Finds the closest intersection in the base world and all instances, skipping the model at index ignore.
+    public boolean closest(double ox, double oy, double oz, double dx, double dy, double dz, int ignore, double epsilon, Hit hit) {
+        hit.reset();
+        base.findClosest(ox, oy, oz, dx, dy, dz, ignore, epsilon, hit);
+        if (top == null) {
+            return hit.found();
+        }
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+        int[] nodes = top.nodes();
+        int[] stack = hit.instanceStack;
+        int stackSize = 0;
+        int node = 0;
+        while (true) {
+            if (top.hitsBox(node, ox, oy, oz, invX, invY, invZ, hit.t)) {
+                int count = nodes[node*3 + 1];
+                if (count > 0) {
+                    int first = nodes[node*3];
+                    for (int i = first; i < first + count; i++) {
+                        if (firstInstanceModel + i == ignore) {
+                            continue;
+                        }
+                        // The object-space direction is not renormalized, so distances stay in world units.
+                        int m = i * AFFINE_SIZE;
+                        double px = point(toObject, m, ox, oy, oz), py = point(toObject, m + 4, ox, oy, oz), pz = point(toObject, m + 8, ox, oy, oz);
+                        double vx = vector(toObject, m, dx, dy, dz), vy = vector(toObject, m + 4, dx, dy, dz), vz = vector(toObject, m + 8, dx, dy, dz);
+                        double t = hit.t;
+                        if (primitives[i] != null) {
+                            Primitives.intersect(primitives[i], px, py, pz, vx, vy, vz, epsilon, hit);
+                        } else {
+                            meshes[instanceMeshes[i]].findClosest(px, py, pz, vx, vy, vz, -1, epsilon, hit);
+                        }
+                        if (hit.t < t) {
+                            hit.instance = i;
+                        }
+                    }
+                } else if (BVH.isNegative(nodes[node*3 + 2], invX, invY, invZ)) {
+                    stack[stackSize++] = node + 1;
+                    node = nodes[node*3];
+                    continue;
+                } else {
+                    stack[stackSize++] = nodes[node*3];
+                    node = node + 1;
+                    continue;
+                }
+            }
+            if (stackSize == 0) {
+                break;
+            }
+            node = stack[--stackSize];
+        }
+        return hit.found();
+    }
+
+    // Returns whether anything other than the model at index ignore intersects the ray at a distance in [epsilon, tMax).
+    public boolean occluded(double ox, double oy, double oz, double dx, double dy, double dz, double tMax, int ignore,
+                            double epsilon, Hit hit) {
+        if (base.occluded(ox, oy, oz, dx, dy, dz, tMax, ignore, epsilon, hit)) {
+            return true;
+        }
+        if (top == null) {
+            return false;
+        }
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+        int[] nodes = top.nodes();
+        int[] stack = hit.instanceStack;
+        int stackSize = 0;
+        int node = 0;
+        while (true) {
+            if (top.hitsBox(node, ox, oy, oz, invX, invY, invZ, tMax)) {
+                int count = nodes[node*3 + 1];
+                if (count > 0) {
+                    int first = nodes[node*3];
+                    for (int i = first; i < first + count; i++) {
+                        if (firstInstanceModel + i == ignore) {
+                            continue;
+                        }
+                        int m = i * AFFINE_SIZE;
+                        double px = point(toObject, m, ox, oy, oz), py = point(toObject, m + 4, ox, oy, oz), pz = point(toObject, m + 8, ox, oy, oz);
+                        double vx = vector(toObject, m, dx, dy, dz), vy = vector(toObject, m + 4, dx, dy, dz), vz = vector(toObject, m + 8, dx, dy, dz);
+                        boolean blocked = primitives[i] != null
+                                ? Primitives.intersect(primitives[i], px, py, pz, vx, vy, vz, epsilon, hit)
+                                : meshes[instanceMeshes[i]].findAny(px, py, pz, vx, vy, vz, tMax, -1, epsilon, hit);
+                        if (blocked) {
+                            hit.instance = i;
+                            return true;
+                        }
+                    }
+                } else {
+                    stack[stackSize++] = nodes[node*3];
+                    node = node + 1;
+                    continue;
+                }
+            }
+            if (stackSize == 0) {
+                return false;
+            }
+            node = stack[--stackSize];
+        }
+    }
+
+    // Tests a ray against a single face of the base world (instance -1) or of an instance, or against an analytic
+    // instance (face is then ignored). The hit record is reset first and holds the result if true is returned.
+    boolean intersect(int instance, int face, double ox, double oy, double oz, double dx, double dy, double dz,
+                      double epsilon, Hit hit) {
+        hit.reset();
+        if (instance < 0) {
+            return Triangles.intersect(base.scene(), face, ox, oy, oz, dx, dy, dz, epsilon, hit);
+        }
+        int m = instance * AFFINE_SIZE;
+        double px = point(toObject, m, ox, oy, oz), py = point(toObject, m + 4, ox, oy, oz), pz = point(toObject, m + 8, ox, oy, oz);
+        double vx = vector(toObject, m, dx, dy, dz), vy = vector(toObject, m + 4, dx, dy, dz), vz = vector(toObject, m + 8, dx, dy, dz);
+        boolean found = primitives[instance] != null
+                ? Primitives.intersect(primitives[instance], px, py, pz, vx, vy, vz, epsilon, hit)
+                : Triangles.intersect(scene(instance), face, px, py, pz, vx, vy, vz, epsilon, hit);
+        if (found) {
+            hit.instance = instance;
+        }
+        return found;
+    }
+
+    int instanceCount() {
+        return this.instances.length;
+    }
+
+    // One world-space coordinate (0 for x, 1 for y, 2 for z) of an object-space point of an instance.
+    double pointToWorld(int instance, int axis, double x, double y, double z) {
+        return point(toWorld, instance * AFFINE_SIZE + axis * 4, x, y, z);
+    }
+
+    // The compiled faces that a hit's face index refers to, or null for an analytic instance.
+    CompiledWorld scene(int instance) {
+        if (instance < 0) {
+            return base.scene();
+        }
+        return primitives[instance] != null ? null : meshes[instanceMeshes[instance]].scene();
+    }
+
+    Primitive primitive(int instance) {
+        return primitives[instance];
+    }
+
+    Model model(int instance) {
+        return instances[instance].model();
+    }
+
+    int modelIndex(int instance) {
+        return firstInstanceModel + instance;
+    }
+
+    Mat4 transform(int instance) {
+        return instances[instance].transform();
+    }
+
+    Material material(int instance, int face) {
+        if (materials[instance] != null) {
+            return materials[instance];
+        }
+        return primitives[instance] != null ? primitives[instance].material() : scene(instance).material(face);
+    }
+
+    Vec3 pointToObject(int instance, Vec3 point) {
+        int m = instance * AFFINE_SIZE;
+        return new Vec3(point(toObject, m, point.x(), point.y(), point.z()),
+                point(toObject, m + 4, point.x(), point.y(), point.z()),
+                point(toObject, m + 8, point.x(), point.y(), point.z()));
+    }
+
+    // Transforms an object-space normal by the inverse transpose of the instance transform.
+    Vec3 normalToWorld(int instance, Vec3 normal) {
+        int m = instance * AFFINE_SIZE;
+        double x = toObject[m] * normal.x() + toObject[m + 4] * normal.y() + toObject[m + 8] * normal.z();
+        double y = toObject[m + 1] * normal.x() + toObject[m + 5] * normal.y() + toObject[m + 9] * normal.z();
+        double z = toObject[m + 2] * normal.x() + toObject[m + 6] * normal.y() + toObject[m + 10] * normal.z();
+        return new Vec3(x, y, z).normalize();
+    }
+
+    static double point(double[] matrix, int row, double x, double y, double z) {
+        return matrix[row] * x + matrix[row + 1] * y + matrix[row + 2] * z + matrix[row + 3];
+    }
+
+    static double vector(double[] matrix, int row, double x, double y, double z) {
+        return matrix[row] * x + matrix[row + 1] * y + matrix[row + 2] * z;
+    }
+
+    // Reads the top three rows of the transform by applying it to the basis vectors and the origin.
+    static void affine(Mat4 transform, double[] out, int offset) {
+        Vec4[] columns = {
+                transform.multiply(new Vec4(1, 0, 0, 0)),
+                transform.multiply(new Vec4(0, 1, 0, 0)),
+                transform.multiply(new Vec4(0, 0, 1, 0)),
+                transform.multiply(new Vec4(0, 0, 0, 1))
+        };
+        for (int column = 0; column < 4; column++) {
+            out[offset + column] = columns[column].x();
+            out[offset + 4 + column] = columns[column].y();
+            out[offset + 8 + column] = columns[column].z();
+        }
+    }
+
+    static void invert(double[] matrix, double[] out, int offset) {
+        double a = matrix[offset], b = matrix[offset + 1], c = matrix[offset + 2];
+        double d = matrix[offset + 4], e = matrix[offset + 5], f = matrix[offset + 6];
+        double g = matrix[offset + 8], h = matrix[offset + 9], i = matrix[offset + 10];
+        double determinant = a * (e*i - f*h) - b * (d*i - f*g) + c * (d*h - e*g);
+        if (determinant == 0) {
+            throw new IllegalArgumentException("Instance transforms must be invertible.");
+        }
+        double s = 1.0 / determinant;
+        double[] inverse = {
+                (e*i - f*h) * s, (c*h - b*i) * s, (b*f - c*e) * s,
+                (f*g - d*i) * s, (a*i - c*g) * s, (c*d - a*f) * s,
+                (d*h - e*g) * s, (b*g - a*h) * s, (a*e - b*d) * s
+        };
+        for (int row = 0; row < 3; row++) {
+            double r0 = inverse[row*3], r1 = inverse[row*3 + 1], r2 = inverse[row*3 + 2];
+            out[offset + row*4] = r0;
+            out[offset + row*4 + 1] = r1;
+            out[offset + row*4 + 2] = r2;
+            out[offset + row*4 + 3] = -(r0 * matrix[offset + 3] + r1 * matrix[offset + 7] + r2 * matrix[offset + 11]);
+        }
+    }
+
+    // Writes the world-space box enclosing the eight transformed corners of a mesh's root box.
+    private static void transformBox(double[] bounds, double[] matrix, int m, double[] out, int o) {
+        out[o] = out[o + 1] = out[o + 2] = Double.POSITIVE_INFINITY;
+        out[o + 3] = out[o + 4] = out[o + 5] = Double.NEGATIVE_INFINITY;
+        for (int corner = 0; corner < 8; corner++) {
+            double x = bounds[(corner & 1) == 0 ? 0 : 3];
+            double y = bounds[(corner & 2) == 0 ? 1 : 4];
+            double z = bounds[(corner & 4) == 0 ? 2 : 5];
+            for (int axis = 0; axis < 3; axis++) {
+                double value = point(matrix, m + axis*4, x, y, z);
+                out[o + axis] = Math.min(out[o + axis], value);
+                out[o + 3 + axis] = Math.max(out[o + 3 + axis], value);
+            }
+        }
+    }
+
+    public static class Stats {
+        private final BVH.Stats base;
+        private final int instanceCount;
+        private final int meshCount;
+        private final long storedFaces;
+        private final long instancedFaces;
+        private final int primitiveCount;
+        private final int topNodeCount;
+
+        public Stats(BVH.Stats base, int instanceCount, int meshCount, long storedFaces, long instancedFaces,
+                     int primitiveCount, int topNodeCount) {
+            this.base = base;
+            this.instanceCount = instanceCount;
+            this.meshCount = meshCount;
+            this.storedFaces = storedFaces;
+            this.instancedFaces = instancedFaces;
+            this.primitiveCount = primitiveCount;
+            this.topNodeCount = topNodeCount;
+        }
+
+        public BVH.Stats base() {
+            return this.base;
+        }
+
+        public int instanceCount() {
+            return this.instanceCount;
+        }
+
+        public int meshCount() {
+            return this.meshCount;
+        }
+
+        public long storedFaces() {
+            return this.storedFaces;
+        }
+
+        public long instancedFaces() {
+            return this.instancedFaces;
+        }
+
+        public int primitiveCount() {
+            return this.primitiveCount;
+        }
+
+        public int topNodeCount() {
+            return this.topNodeCount;
+        }
+
+        public String toString() {
+            if (instanceCount == 0) {
+                return base.toString();
+            }
+            return base + String.format("%nInstances: %d instances of %d meshes, %d faces stored for %d instanced faces, %d analytic, %d top-level nodes",
+                    instanceCount, meshCount, storedFaces, instancedFaces, primitiveCount, topNodeCount);
+        }
+    }
+}
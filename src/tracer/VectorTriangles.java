@@ -0,0 +1,94 @@
+package tracer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// The Moller-Trumbore test of Triangles.intersect applied to one ray and a block of TrianglePacks.LANES faces at once.
+// Every lane does the same arithmetic in the same order as the scalar test, so both accept the same faces and report
+// the same distances. Only referenced once TrianglePacks has found the jdk.incubator.vector module.
+class VectorTriangles {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_256;
+    private static final int LANES = TrianglePacks.LANES;
+
+    private VectorTriangles() {}
+
+    // Whether the hardware has vectors of at least LANES doubles, so SPECIES is not emulated.
+    static boolean supported() {
+        return SPECIES.length() == LANES && DoubleVector.SPECIES_PREFERRED.length() >= LANES;
+    }
+
+    // Tests the faces of the given lanes of a block, replacing the hit's contents with the closest hit in
+    // [epsilon, hit.t). Faces are considered in lane order, so ties go to the lowest face like a scalar loop would.
+    static void closest(TrianglePacks packs, int block, long lanes, double ox, double oy, double oz,
+                        double dx, double dy, double dz, double epsilon, Hit hit) {
+        long found = test(packs.blocks, block * TrianglePacks.BLOCK_SIZE, lanes, ox, oy, oz, dx, dy, dz, epsilon,
+                hit.t, hit.lanes);
+        for (int lane = 0; found != 0; lane++, found >>>= 1) {
+            double t = hit.lanes[lane];
+            if ((found & 1) != 0 && t < hit.t) {
+                hit.t = t;
+                hit.u = hit.lanes[LANES + lane];
+                hit.v = hit.lanes[2*LANES + lane];
+                hit.face = packs.faces[block*LANES + lane];
+            }
+        }
+    }
+
+    // Returns whether any face of the given lanes of a block is hit in [epsilon, tMax).
+    static boolean any(TrianglePacks packs, int block, long lanes, double ox, double oy, double oz,
+                       double dx, double dy, double dz, double tMax, double epsilon, Hit hit) {
+        return test(packs.blocks, block * TrianglePacks.BLOCK_SIZE, lanes, ox, oy, oz, dx, dy, dz, epsilon, tMax,
+                hit.lanes) != 0;
+    }
+
+    // Returns the bitmask of lanes hit in [epsilon, tMax), storing t, u and v of each lane in results.
+    private static long test(double[] blocks, int i, long lanes, double ox, double oy, double oz,
+                             double dx, double dy, double dz, double epsilon, double tMax, double[] results) {
+        DoubleVector e1x = DoubleVector.fromArray(SPECIES, blocks, i + 3*LANES);
+        DoubleVector e1y = DoubleVector.fromArray(SPECIES, blocks, i + 4*LANES);
+        DoubleVector e1z = DoubleVector.fromArray(SPECIES, blocks, i + 5*LANES);
+        DoubleVector e2x = DoubleVector.fromArray(SPECIES, blocks, i + 6*LANES);
+        DoubleVector e2y = DoubleVector.fromArray(SPECIES, blocks, i + 7*LANES);
+        DoubleVector e2z = DoubleVector.fromArray(SPECIES, blocks, i + 8*LANES);
+
+        // pvec = direction x e2
+        DoubleVector px = e2z.mul(dy).sub(e2y.mul(dz));
+        DoubleVector py = e2x.mul(dz).sub(e2z.mul(dx));
+        DoubleVector pz = e2y.mul(dx).sub(e2x.mul(dy));
+        DoubleVector det = e1x.mul(px).add(e1y.mul(py)).add(e1z.mul(pz));
+        VectorMask<Double> mask = VectorMask.fromLong(SPECIES, lanes).andNot(det.abs().compare(VectorOperators.LT, epsilon));
+        if (!mask.anyTrue()) {
+            return 0;
+        }
+        DoubleVector invDet = DoubleVector.broadcast(SPECIES, 1.0).div(det);
+
+        DoubleVector tx = DoubleVector.broadcast(SPECIES, ox).sub(DoubleVector.fromArray(SPECIES, blocks, i));
+        DoubleVector ty = DoubleVector.broadcast(SPECIES, oy).sub(DoubleVector.fromArray(SPECIES, blocks, i + LANES));
+        DoubleVector tz = DoubleVector.broadcast(SPECIES, oz).sub(DoubleVector.fromArray(SPECIES, blocks, i + 2*LANES));
+        DoubleVector u = tx.mul(px).add(ty.mul(py)).add(tz.mul(pz)).mul(invDet);
+        mask = mask.andNot(u.compare(VectorOperators.LT, 0)).andNot(u.compare(VectorOperators.GT, 1));
+        if (!mask.anyTrue()) {
+            return 0;
+        }
+
+        // qvec = tvec x e1
+        DoubleVector qx = ty.mul(e1z).sub(tz.mul(e1y));
+        DoubleVector qy = tz.mul(e1x).sub(tx.mul(e1z));
+        DoubleVector qz = tx.mul(e1y).sub(ty.mul(e1x));
+        DoubleVector v = qx.mul(dx).add(qy.mul(dy)).add(qz.mul(dz)).mul(invDet);
+        mask = mask.andNot(v.compare(VectorOperators.LT, 0)).andNot(u.add(v).compare(VectorOperators.GT, 1));
+
+        DoubleVector t = e2x.mul(qx).add(e2y.mul(qy)).add(e2z.mul(qz)).mul(invDet);
+        mask = mask.andNot(t.compare(VectorOperators.LT, epsilon)).andNot(t.compare(VectorOperators.GE, tMax));
+        long found = mask.toLong();
+        if (found != 0) {
+            t.intoArray(results, 0);
+            u.intoArray(results, LANES);
+            v.intoArray(results, 2*LANES);
+        }
+        return found;
+    }
+}
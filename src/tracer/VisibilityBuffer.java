@@ -0,0 +1,467 @@
+package tracer;
+
+import com.github.jordanpottruff.jgml.Vec3;
+import world.CompiledWorld;
+import world.GeometryStore;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+// Camera-ray visibility found by rasterization instead of traversal. When built, every face of the scene (the base
+// world's and those of mesh instances) is moved into camera space, clipped against a near plane, projected to image
+// coordinates and binned to the tiles of the frame; analytic instances are binned by the image-space box of their
+// bounds. For a tile's camera rays, resolve depth tests the binned items at the image point of each ray, so jittered
+// and per-pass sample positions are rasterized exactly rather than at pixel centers. The nearest face is then checked
+// with a single intersection test of the ray, which gives the exact distance and barycentrics that tracing would.
+// Rays whose face fails that test (samples within rounding of an edge) are left for the caller to trace.
+//
+// Only which item is nearest comes from the rasterizer, so a resolved ray differs from a traced one only where two
+// surfaces are closer in depth than rounding can separate.
+class VisibilityBuffer {
+
+    // Faces are clipped to the part at least this far in front of the camera.
+    private static final double NEAR = 1e-4;
+    // Slack in barycentric units, so a sample on an edge shared by two faces is covered by both despite rounding.
+    private static final double EDGE_TOLERANCE = 1e-7;
+    private static final byte TRACE = 0;
+    private static final byte MISS = 1;
+    private static final byte HIT = 2;
+
+    private final TwoLevelBVH bvh;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int tilesX;
+    // World-to-camera transform as the top three rows of an affine matrix.
+    private final double[] toCamera = new double[TwoLevelBVH.AFFINE_SIZE];
+    // Image-space units per unit of camera-space x or y at unit depth.
+    private final double scale;
+
+    private int itemCount;
+    // Per item: image-space box minX, minY, maxX, maxY.
+    private double[] boxes = new double[64 * 4];
+    // Per face item: image x, image y and reciprocal depth of each vertex.
+    private double[] vertices = new double[64 * 9];
+    // Per item: the instance (-1 for the base world) and the face, or -1 for an analytic instance.
+    private int[] instances = new int[64];
+    private int[] faces = new int[64];
+    // The items overlapping tile i are binItems[binStarts[i]] to binItems[binStarts[i + 1] - 1].
+    private int[] binStarts;
+    private int[] binItems;
+
+    // Scratch space for clipping a face.
+    private final double[] clipped = new double[4 * 3];
+    private final double[] projected = new double[4 * 3];
+
+    private VisibilityBuffer(TwoLevelBVH bvh, Camera camera, int tileSize) {
+        this.bvh = bvh;
+        this.width = camera.width();
+        this.height = camera.height();
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        TwoLevelBVH.invert(camera.toWorld(), toCamera, 0);
+        this.scale = camera.scale();
+    }
+
+    // Builds the buffer for a camera without a lens.
+    static VisibilityBuffer build(TwoLevelBVH bvh, Camera camera, int tileSize) {
+        VisibilityBuffer buffer = new VisibilityBuffer(bvh, camera, tileSize);
+        buffer.addFaces(-1, bvh.scene(-1));
+        for (int instance = 0; instance < bvh.instanceCount(); instance++) {
+            if (bvh.primitive(instance) != null) {
+                buffer.addPrimitive(instance, bvh.primitive(instance).bounds());
+            } else {
+                buffer.addFaces(instance, bvh.scene(instance));
+            }
+        }
+        buffer.bin();
+        return buffer;
+    }
+
+    // Finds the first hit of each camera ray of a tile, returning how many were resolved.
+    int resolve(TileScheduler.Tile tile, Samples samples) {
+        int count = samples.count;
+        samples.prepare(tile.pixelCount());
+        // Index the samples by pixel.
+        int[] starts = samples.pixelStarts;
+        int[] order = samples.order;
+        Arrays.fill(starts, 0, tile.pixelCount() + 1, 0);
+        for (int i = 0; i < count; i++) {
+            starts[localPixel(tile, samples, i) + 1]++;
+        }
+        for (int p = 0; p < tile.pixelCount(); p++) {
+            starts[p + 1] += starts[p];
+        }
+        int[] cursors = samples.cursors;
+        System.arraycopy(starts, 0, cursors, 0, tile.pixelCount());
+        for (int i = 0; i < count; i++) {
+            order[cursors[localPixel(tile, samples, i)]++] = i;
+        }
+
+        double[] depths = samples.depths;
+        int[] nearest = samples.nearest;
+        Arrays.fill(depths, 0, count, Double.POSITIVE_INFINITY);
+        Arrays.fill(nearest, 0, count, -1);
+        Hit hit = Hit.local();
+        int bin = tile.y() / tileSize * tilesX + tile.x() / tileSize;
+        for (int b = binStarts[bin]; b < binStarts[bin + 1]; b++) {
+            int item = binItems[b];
+            int x0 = Math.max(tile.x(), (int) Math.floor(boxes[item*4]));
+            int y0 = Math.max(tile.y(), (int) Math.floor(boxes[item*4 + 1]));
+            int x1 = Math.min(tile.x() + tile.width() - 1, (int) Math.floor(boxes[item*4 + 2]));
+            int y1 = Math.min(tile.y() + tile.height() - 1, (int) Math.floor(boxes[item*4 + 3]));
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    int pixel = (y - tile.y()) * tile.width() + (x - tile.x());
+                    if (faces[item] < 0) {
+                        rasterizePrimitive(item, samples, order, starts[pixel], starts[pixel + 1], hit);
+                    } else {
+                        rasterizeFace(item, samples, order, starts[pixel], starts[pixel + 1]);
+                    }
+                }
+            }
+        }
+
+        int resolved = 0;
+        for (int i = 0; i < count; i++) {
+            int item = nearest[i];
+            if (item < 0) {
+                samples.states[i] = MISS;
+            } else if (faces[item] < 0) {
+                // Rasterizing the instance already tested the ray and stored the hit.
+                samples.states[i] = HIT;
+            } else {
+                double[] rays = samples.rays;
+                int r = i * Samples.RAY_STRIDE;
+                boolean found = bvh.intersect(instances[item], faces[item], rays[r], rays[r + 1], rays[r + 2],
+                        rays[r + 3], rays[r + 4], rays[r + 5], Tracer.EPSILON, hit);
+                samples.states[i] = found ? HIT : TRACE;
+                samples.store(i, hit);
+            }
+            if (samples.states[i] != TRACE) {
+                resolved++;
+            }
+        }
+        return resolved;
+    }
+
+    private void rasterizeFace(int item, Samples samples, int[] order, int start, int end) {
+        int v = item * 9;
+        double ax = vertices[v], ay = vertices[v + 1], az = vertices[v + 2];
+        double bx = vertices[v + 3], by = vertices[v + 4], bz = vertices[v + 5];
+        double cx = vertices[v + 6], cy = vertices[v + 7], cz = vertices[v + 8];
+        double inverseArea = 1.0 / ((bx - ax) * (cy - ay) - (cx - ax) * (by - ay));
+        for (int k = start; k < end; k++) {
+            int i = order[k];
+            double sx = samples.points[i*2], sy = samples.points[i*2 + 1];
+            double wa = ((bx - sx) * (cy - sy) - (cx - sx) * (by - sy)) * inverseArea;
+            double wb = ((cx - sx) * (ay - sy) - (ax - sx) * (cy - sy)) * inverseArea;
+            double wc = ((ax - sx) * (by - sy) - (bx - sx) * (ay - sy)) * inverseArea;
+            if (wa < -EDGE_TOLERANCE || wb < -EDGE_TOLERANCE || wc < -EDGE_TOLERANCE) {
+                continue;
+            }
+            // Reciprocal depth is linear in image space.
+            double depth = 1.0 / (wa * az + wb * bz + wc * cz);
+            if (depth < samples.depths[i]) {
+                samples.depths[i] = depth;
+                samples.nearest[i] = item;
+            }
+        }
+    }
+
+    // Analytic instances are cheap to test exactly, so their rays are tested outright and the hit kept.
+    private void rasterizePrimitive(int item, Samples samples, int[] order, int start, int end, Hit hit) {
+        for (int k = start; k < end; k++) {
+            int i = order[k];
+            double[] rays = samples.rays;
+            int r = i * Samples.RAY_STRIDE;
+            double dx = rays[r + 3], dy = rays[r + 4], dz = rays[r + 5];
+            if (!bvh.intersect(instances[item], -1, rays[r], rays[r + 1], rays[r + 2], dx, dy, dz, Tracer.EPSILON, hit)) {
+                continue;
+            }
+            double depth = -hit.t * TwoLevelBVH.vector(toCamera, 8, dx, dy, dz);
+            if (depth < samples.depths[i]) {
+                samples.depths[i] = depth;
+                samples.nearest[i] = item;
+                samples.store(i, hit);
+            }
+        }
+    }
+
+    private static int localPixel(TileScheduler.Tile tile, Samples samples, int i) {
+        return (samples.pixels[i*2 + 1] - tile.y()) * tile.width() + (samples.pixels[i*2] - tile.x());
+    }
+
+    private void addFaces(int instance, CompiledWorld scene) {
+        GeometryStore.Doubles triangles = scene.store().triangles();
+        double[] camera = new double[9];
+        for (int face = 0; face < scene.faceCount(); face++) {
+            long t = (long) face * CompiledWorld.TRIANGLE_STRIDE;
+            for (int vertex = 0; vertex < 3; vertex++) {
+                double x = triangles.get(t), y = triangles.get(t + 1), z = triangles.get(t + 2);
+                if (vertex > 0) {
+                    x += triangles.get(t + vertex*3);
+                    y += triangles.get(t + vertex*3 + 1);
+                    z += triangles.get(t + vertex*3 + 2);
+                }
+                if (instance >= 0) {
+                    double wx = bvh.pointToWorld(instance, 0, x, y, z);
+                    double wy = bvh.pointToWorld(instance, 1, x, y, z);
+                    z = bvh.pointToWorld(instance, 2, x, y, z);
+                    x = wx;
+                    y = wy;
+                }
+                for (int axis = 0; axis < 3; axis++) {
+                    camera[vertex*3 + axis] = TwoLevelBVH.point(toCamera, axis*4, x, y, z);
+                }
+            }
+            addFace(instance, face, camera);
+        }
+    }
+
+    // Clips a camera-space triangle to the space in front of the near plane, which leaves a polygon of up to four
+    // vertices, and adds it as one or two projected items.
+    private void addFace(int instance, int face, double[] camera) {
+        int n = 0;
+        for (int k = 0; k < 3; k++) {
+            int a = k * 3, b = (k + 1) % 3 * 3;
+            double da = -camera[a + 2] - NEAR, db = -camera[b + 2] - NEAR;
+            if (da >= 0) {
+                System.arraycopy(camera, a, clipped, n*3, 3);
+                n++;
+            }
+            if ((da >= 0) != (db >= 0)) {
+                double s = da / (da - db);
+                for (int axis = 0; axis < 3; axis++) {
+                    clipped[n*3 + axis] = camera[a + axis] + s * (camera[b + axis] - camera[a + axis]);
+                }
+                n++;
+            }
+        }
+        if (n < 3) {
+            return;
+        }
+        for (int k = 0; k < n; k++) {
+            double depth = Math.max(-clipped[k*3 + 2], NEAR);
+            projected[k*3] = width / 2.0 + clipped[k*3] / depth * scale;
+            projected[k*3 + 1] = height / 2.0 - clipped[k*3 + 1] / depth * scale;
+            projected[k*3 + 2] = 1.0 / depth;
+        }
+        addProjected(instance, face, 0, 1, 2);
+        if (n == 4) {
+            addProjected(instance, face, 0, 2, 3);
+        }
+    }
+
+    private void addProjected(int instance, int face, int a, int b, int c) {
+        double ax = projected[a*3], ay = projected[a*3 + 1];
+        double bx = projected[b*3], by = projected[b*3 + 1];
+        double cx = projected[c*3], cy = projected[c*3 + 1];
+        // Faces seen edge-on cover no area; rays grazing them are rejected by the intersection test too.
+        if ((bx - ax) * (cy - ay) - (cx - ax) * (by - ay) == 0) {
+            return;
+        }
+        double minX = Math.min(ax, Math.min(bx, cx)), maxX = Math.max(ax, Math.max(bx, cx));
+        double minY = Math.min(ay, Math.min(by, cy)), maxY = Math.max(ay, Math.max(by, cy));
+        if (maxX < 0 || maxY < 0 || minX > width || minY > height) {
+            return;
+        }
+        int item = addItem(instance, face, minX, minY, maxX, maxY);
+        System.arraycopy(projected, a*3, vertices, item*9, 3);
+        System.arraycopy(projected, b*3, vertices, item*9 + 3, 3);
+        System.arraycopy(projected, c*3, vertices, item*9 + 6, 3);
+    }
+
+    // Covers the image-space box of the bounds' corners, or the whole frame if the bounds reach behind the near plane.
+    private void addPrimitive(int instance, double[] bounds) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        boolean inFront = false;
+        boolean behind = false;
+        for (int corner = 0; corner < 8; corner++) {
+            double x = bounds[(corner & 1) == 0 ? 0 : 3];
+            double y = bounds[(corner & 2) == 0 ? 1 : 4];
+            double z = bounds[(corner & 4) == 0 ? 2 : 5];
+            double wx = bvh.pointToWorld(instance, 0, x, y, z);
+            double wy = bvh.pointToWorld(instance, 1, x, y, z);
+            double wz = bvh.pointToWorld(instance, 2, x, y, z);
+            double cameraX = TwoLevelBVH.point(toCamera, 0, wx, wy, wz);
+            double cameraY = TwoLevelBVH.point(toCamera, 4, wx, wy, wz);
+            double depth = -TwoLevelBVH.point(toCamera, 8, wx, wy, wz);
+            if (depth < NEAR) {
+                behind = true;
+                continue;
+            }
+            inFront = true;
+            double imageX = width / 2.0 + cameraX / depth * scale;
+            double imageY = height / 2.0 - cameraY / depth * scale;
+            minX = Math.min(minX, imageX);
+            minY = Math.min(minY, imageY);
+            maxX = Math.max(maxX, imageX);
+            maxY = Math.max(maxY, imageY);
+        }
+        if (!inFront) {
+            return;
+        }
+        if (behind) {
+            addItem(instance, -1, 0, 0, width, height);
+        } else if (maxX >= 0 && maxY >= 0 && minX <= width && minY <= height) {
+            addItem(instance, -1, minX, minY, maxX, maxY);
+        }
+    }
+
+    private int addItem(int instance, int face, double minX, double minY, double maxX, double maxY) {
+        if (itemCount == instances.length) {
+            int capacity = instances.length * 2;
+            boxes = Arrays.copyOf(boxes, capacity * 4);
+            vertices = Arrays.copyOf(vertices, capacity * 9);
+            instances = Arrays.copyOf(instances, capacity);
+            faces = Arrays.copyOf(faces, capacity);
+        }
+        int item = itemCount++;
+        boxes[item*4] = minX;
+        boxes[item*4 + 1] = minY;
+        boxes[item*4 + 2] = maxX;
+        boxes[item*4 + 3] = maxY;
+        instances[item] = instance;
+        faces[item] = face;
+        return item;
+    }
+
+    private void bin() {
+        int tilesY = (height + tileSize - 1) / tileSize;
+        binStarts = new int[tilesX * tilesY + 1];
+        for (int pass = 0; pass < 2; pass++) {
+            int[] cursors = pass == 0 ? null : Arrays.copyOf(binStarts, binStarts.length);
+            for (int item = 0; item < itemCount; item++) {
+                int tx0 = tile(boxes[item*4], width, tilesX), tx1 = tile(boxes[item*4 + 2], width, tilesX);
+                int ty0 = tile(boxes[item*4 + 1], height, tilesY), ty1 = tile(boxes[item*4 + 3], height, tilesY);
+                for (int ty = ty0; ty <= ty1; ty++) {
+                    for (int tx = tx0; tx <= tx1; tx++) {
+                        if (pass == 0) {
+                            binStarts[ty * tilesX + tx + 1]++;
+                        } else {
+                            binItems[cursors[ty * tilesX + tx]++] = item;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int bin = 0; bin < tilesX * tilesY; bin++) {
+                    binStarts[bin + 1] += binStarts[bin];
+                }
+                binItems = new int[binStarts[tilesX * tilesY]];
+            }
+        }
+    }
+
+    private int tile(double coordinate, int size, int tiles) {
+        int pixel = (int) Math.floor(Math.max(0, Math.min(size - 1, coordinate)));
+        return Math.min(pixel / tileSize, tiles - 1);
+    }
+
+    // The camera rays of one tile and, once resolved, their first hits. Reused across tiles by one thread.
+    static class Samples {
+        private static final int RAY_STRIDE = 6;
+
+        private int count;
+        // Per ray: its pixel's x and y, its image point's x and y, and the ray's origin and direction.
+        private int[] pixels = new int[0];
+        private double[] points = new double[0];
+        private double[] rays = new double[0];
+        // Per ray, once resolved: whether it must be traced, misses or hits, and the hit.
+        private byte[] states = new byte[0];
+        private double[] t = new double[0];
+        private double[] u = new double[0];
+        private double[] v = new double[0];
+        private int[] faces = new int[0];
+        private int[] instances = new int[0];
+        // Scratch space for resolve.
+        private double[] depths = new double[0];
+        private int[] nearest = new int[0];
+        private int[] order = new int[0];
+        private int[] pixelStarts = new int[1];
+        private int[] cursors = new int[0];
+
+        void clear() {
+            count = 0;
+        }
+
+        // Adds the ray written by Camera.ray to ray from offset.
+        void add(int x, int y, double pointX, double pointY, double[] ray, int offset) {
+            if (count * 2 == points.length) {
+                int capacity = Math.max(16, count * 2);
+                pixels = Arrays.copyOf(pixels, capacity * 2);
+                points = Arrays.copyOf(points, capacity * 2);
+                rays = Arrays.copyOf(rays, capacity * RAY_STRIDE);
+            }
+            pixels[count*2] = x;
+            pixels[count*2 + 1] = y;
+            points[count*2] = pointX;
+            points[count*2 + 1] = pointY;
+            System.arraycopy(ray, offset, rays, count * RAY_STRIDE, RAY_STRIDE);
+            count++;
+        }
+
+        int count() {
+            return this.count;
+        }
+
+        // Copies the first hit of ray i into the record (not found for a miss). Returns false, leaving the record
+        // unchanged, if the ray must be traced.
+        boolean load(int i, Hit hit) {
+            if (states[i] == TRACE) {
+                return false;
+            }
+            hit.reset();
+            if (states[i] == HIT) {
+                hit.t = t[i];
+                hit.u = u[i];
+                hit.v = v[i];
+                hit.face = faces[i];
+                hit.instance = instances[i];
+            }
+            return true;
+        }
+
+        // The first hit of ray i: null if it must be traced, and empty if it leaves the scene.
+        Optional<Intersection> first(int i, TwoLevelBVH bvh, Hit hit) {
+            if (!load(i, hit)) {
+                return null;
+            }
+            if (!hit.found()) {
+                return Optional.empty();
+            }
+            int r = i * RAY_STRIDE;
+            Ray ray = new Ray(new Vec3(rays[r], rays[r + 1], rays[r + 2]), new Vec3(rays[r + 3], rays[r + 4], rays[r + 5]));
+            return Optional.of(Intersection.fromHit(ray, bvh, hit));
+        }
+
+        private void store(int i, Hit hit) {
+            t[i] = hit.t;
+            u[i] = hit.u;
+            v[i] = hit.v;
+            faces[i] = hit.face;
+            instances[i] = hit.instance;
+        }
+
+        private void prepare(int pixelCount) {
+            if (states.length < count) {
+                int capacity = points.length / 2;
+                states = new byte[capacity];
+                t = new double[capacity];
+                u = new double[capacity];
+                v = new double[capacity];
+                faces = new int[capacity];
+                instances = new int[capacity];
+                depths = new double[capacity];
+                nearest = new int[capacity];
+                order = new int[capacity];
+            }
+            if (pixelStarts.length < pixelCount + 1) {
+                pixelStarts = new int[pixelCount + 1];
+                cursors = new int[pixelCount];
+            }
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package tracer;
+
+import com.github.jordanpottruff.jgml.Vec3;
+import common.LightSource;
+import common.Material;
+import renderer.FrameBuffer;
+
+import java.util.Arrays;
+
+// Breadth-first counterpart of Tracer's depth-first path loop. The camera rays of every pixel in a tile are traced
+// together, one stage at a time over the whole queue: intersection, shading (which queues the shadow rays), shadow
+// rays, and finally reflection, which refills the path queue for the next bounce. Before the intersection and shadow
+// stages the rays are ordered by a Morton key of their direction and origin, so rays that are adjacent in a queue tend
+// to traverse the same nodes of the hierarchy.
+//
+// Queues are structure-of-arrays of primitives that grow as needed and are reused by one worker thread across tiles.
+// Every sample, light choice and roulette decision is made exactly as in the depth-first loop, and light contributions
+// are summed in the same order, so both engines produce the same image. With a visibility buffer, the camera rays of a
+// pixel's first batch are resolved by it, and only those it leaves unresolved go through the intersection stage.
+class Wavefront {
+
+    private static final int ORIGIN_BITS = 10;
+    private static final int DIRECTION_BITS = 3;
+    // Sort keys keep the queue index in their low bits; larger queues are traced unsorted.
+    private static final int INDEX_BITS = 24;
+    private static final int RAY_STRIDE = 6;
+    private static final int SHADOW_STRIDE = 7;
+
+    private final Tracer tracer;
+    private final TwoLevelBVH bvh;
+    private final LightTree lights;
+    private final VisibilityBuffer visibility;
+    private final Sampler sampler;
+    private final double spread;
+    private final Hit hit = new Hit();
+    private final double[] probability = new double[1];
+    private final VisibilityBuffer.Samples primary = new VisibilityBuffer.Samples();
+    // Whether the camera rays in the path queue have been resolved by the visibility buffer.
+    private boolean rasterized;
+
+    // Per sample: pixel x and y, and the color accumulated along its path.
+    private int sampleCount;
+    private int[] samplePixels = new int[0];
+    private double[] sampleColors = new double[0];
+
+    // Per path, in queue order: its sample, ray (origin then direction), throughput and distance travelled.
+    private int pathCount;
+    private int[] pathSamples = new int[0];
+    private double[] rays = new double[0];
+    private double[] throughputs = new double[0];
+    private double[] distances = new double[0];
+    // Per path, written by the intersection stage.
+    private double[] hitT = new double[0];
+    private double[] hitU = new double[0];
+    private double[] hitV = new double[0];
+    private int[] hitFaces = new int[0];
+    private int[] hitInstances = new int[0];
+    // Per path, written by the shading stage. Null intersections mark paths that left the scene.
+    private Intersection[] intersections = new Intersection[0];
+    private Vec3[] normals = new Vec3[0];
+    private Vec3[] surfaceColors = new Vec3[0];
+    private Vec3[] ambientLight = new Vec3[0];
+    // Path p owns shadow rays shadowStarts[p] to shadowStarts[p + 1] - 1.
+    private int[] shadowStarts = new int[1];
+
+    // Per shadow ray: origin, direction and length, the model to ignore, the light it would add and whether it does.
+    private int shadowCount;
+    private double[] shadowRays = new double[0];
+    private int[] shadowIgnores = new int[0];
+    private Vec3[] shadowLight = new Vec3[0];
+    private boolean[] shadowVisible = new boolean[0];
+
+    // Sort scratch space.
+    private long[] keys = new long[0];
+    private int[] order = new int[0];
+    private int[] spareSamples = new int[0];
+    private double[] spareRays = new double[0];
+    private double[] spareThroughputs = new double[0];
+    private double[] spareDistances = new double[0];
+
+    Wavefront(Tracer tracer, TwoLevelBVH bvh, LightTree lights, VisibilityBuffer visibility, Sampler sampler, double spread) {
+        this.tracer = tracer;
+        this.bvh = bvh;
+        this.lights = lights;
+        this.visibility = visibility;
+        this.sampler = sampler;
+        this.spread = spread;
+    }
+
+    // Adds samples to the pixels of a tile with the same selection rules as Tracer.renderPass: a non-negative pass
+    // takes one Halton sample per pixel, otherwise multi-jittered batches are taken, repeated while refine is set and
+    // the pixel has not converged.
+    void render(TileScheduler.Tile tile, FrameBuffer frameBuffer, Camera camera, int samples, int pass, boolean refine) {
+        TracerConfig config = tracer.config();
+        int[] pixels = new int[tile.pixelCount() * 2];
+        int pixelCount = 0;
+        for (int y = tile.y(); y < tile.y() + tile.height(); y++) {
+            for (int x = tile.x(); x < tile.x() + tile.width(); x++) {
+                if (config.adaptive() && !refine && frameBuffer.sampleCount(x, y) > 0 && !tracer.needsSamples(frameBuffer, x, y)) {
+                    continue;
+                }
+                pixels[pixelCount*2] = x;
+                pixels[pixelCount*2 + 1] = y;
+                pixelCount++;
+            }
+        }
+
+        double[] points = new double[2 * samples];
+        int batch = 0;
+        while (pixelCount > 0) {
+            sampleCount = 0;
+            ensureSamples(pixelCount * samples);
+            rasterized = visibility != null && batch == 0;
+            primary.clear();
+            for (int i = 0; i < pixelCount; i++) {
+                int x = pixels[i*2];
+                int y = pixels[i*2 + 1];
+                if (pass >= 0) {
+                    sampler.haltonPixel(x, y, pass, points);
+                } else {
+                    sampler.multiJitterPixel(x, y, samples, batch, points);
+                }
+                for (int s = 0; s < samples; s++) {
+                    int p = addCameraRay(x, y);
+                    camera.ray(points[2*s], points[2*s + 1], sampler, rays, p * RAY_STRIDE);
+                    if (rasterized) {
+                        primary.add(x, y, points[2*s], points[2*s + 1], rays, p * RAY_STRIDE);
+                    }
+                }
+            }
+            if (rasterized) {
+                tracer.countRasterized(visibility.resolve(tile, primary));
+            }
+            traceQueue();
+            for (int s = 0; s < sampleCount; s++) {
+                frameBuffer.addSample(samplePixels[s*2], samplePixels[s*2 + 1],
+                        sampleColors[s*3], sampleColors[s*3 + 1], sampleColors[s*3 + 2]);
+            }
+            if (!refine) {
+                break;
+            }
+            batch++;
+            int remaining = 0;
+            for (int i = 0; i < pixelCount; i++) {
+                if (tracer.needsSamples(frameBuffer, pixels[i*2], pixels[i*2 + 1])) {
+                    pixels[remaining*2] = pixels[i*2];
+                    pixels[remaining*2 + 1] = pixels[i*2 + 1];
+                    remaining++;
+                }
+            }
+            pixelCount = remaining;
+        }
+    }
+
+    // Queues the path of a new sample, returning its index; the caller writes its ray.
+    private int addCameraRay(int x, int y) {
+        int s = sampleCount++;
+        samplePixels[s*2] = x;
+        samplePixels[s*2 + 1] = y;
+        sampleColors[s*3] = sampleColors[s*3 + 1] = sampleColors[s*3 + 2] = 0;
+        ensurePaths(s + 1);
+        pathSamples[s] = s;
+        throughputs[s] = 1.0;
+        distances[s] = 0.0;
+        pathCount = s + 1;
+        return s;
+    }
+
+    private void traceQueue() {
+        for (int depth = 0; depth < tracer.config().maxDepth() && pathCount > 0; depth++) {
+            tracer.countRays(depth, pathCount);
+            // Resolved camera rays are matched to their hits by queue position, so they stay in sample order.
+            boolean resolved = depth == 0 && rasterized;
+            if (!resolved) {
+                sortPaths();
+            }
+            intersect(resolved);
+            shade();
+            traceShadows();
+            reflect();
+        }
+    }
+
+    private void intersect(boolean resolved) {
+        for (int p = 0; p < pathCount; p++) {
+            if (!resolved || !primary.load(p, hit)) {
+                int r = p * RAY_STRIDE;
+                bvh.closest(rays[r], rays[r + 1], rays[r + 2], rays[r + 3], rays[r + 4], rays[r + 5], -1, Tracer.EPSILON, hit);
+            }
+            hitT[p] = hit.t;
+            hitU[p] = hit.u;
+            hitV[p] = hit.v;
+            hitFaces[p] = hit.face;
+            hitInstances[p] = hit.instance;
+        }
+    }
+
+    // Mirrors Tracer.getLight up to the shadow tests: the light each tested light would add is computed here, and the
+    // shadow stage decides which of it arrives.
+    private void shade() {
+        shadowCount = 0;
+        int samples = tracer.config().lightSamples();
+        boolean sampleLights = tracer.samplesLights(lights);
+        Vec3 skyColor = tracer.skyColor();
+        for (int p = 0; p < pathCount; p++) {
+            shadowStarts[p] = shadowCount;
+            if (hitFaces[p] < 0) {
+                int s = pathSamples[p] * 3;
+                double throughput = throughputs[p];
+                sampleColors[s] += throughput * skyColor.x();
+                sampleColors[s + 1] += throughput * skyColor.y();
+                sampleColors[s + 2] += throughput * skyColor.z();
+                intersections[p] = null;
+                continue;
+            }
+            hit.t = hitT[p];
+            hit.u = hitU[p];
+            hit.v = hitV[p];
+            hit.face = hitFaces[p];
+            hit.instance = hitInstances[p];
+            Ray ray = ray(p);
+            Intersection intersection = Intersection.fromHit(ray, bvh, hit);
+            Vec3 normal = intersection.normal();
+            distances[p] += intersection.t();
+            double cosine = Math.abs(normal.dot(ray.direction().normalize()));
+            double footprint = distances[p] * spread / Math.max(cosine, Tracer.MIN_FOOTPRINT_COSINE);
+            intersections[p] = intersection;
+            normals[p] = normal;
+
+            Vec3 origin = ray.origin();
+            Vec3 point = intersection.point();
+            int ignore = intersection.modelIndex();
+            Material material = intersection.material();
+            surfaceColors[p] = intersection.color(footprint);
+            double ambientRatio = Math.max(1.0 - material.specularRatio() - material.diffuseRatio(), 0.0);
+            ambientLight[p] = tracer.ambientColor().scale(ambientRatio);
+            if (!sampleLights) {
+                for (LightSource light: lights.lights()) {
+                    addShadowRay(point, light, ignore, tracer.getDirect(origin, point, normal, light, material));
+                }
+            } else {
+                for (int s = 0; s < samples; s++) {
+                    double u = (s + sampler.random(point.x(), point.y(), point.z(), s)) / samples;
+                    LightSource light = lights.lights()[lights.sample(point.x(), point.y(), point.z(), u, probability)];
+                    double weight = 1.0 / (samples * probability[0]);
+                    addShadowRay(point, light, ignore, tracer.getDirect(origin, point, normal, light, material).scale(weight));
+                }
+            }
+        }
+        shadowStarts[pathCount] = shadowCount;
+    }
+
+    private void addShadowRay(Vec3 point, LightSource light, int ignore, Vec3 contribution) {
+        Vec3 lightPosition = light.position();
+        double dx = lightPosition.x() - point.x();
+        double dy = lightPosition.y() - point.y();
+        double dz = lightPosition.z() - point.z();
+        double distance = Math.sqrt(dx*dx + dy*dy + dz*dz);
+
+        ensureShadows(shadowCount + 1);
+        int r = shadowCount * SHADOW_STRIDE;
+        shadowRays[r] = point.x();
+        shadowRays[r + 1] = point.y();
+        shadowRays[r + 2] = point.z();
+        shadowRays[r + 3] = dx / distance;
+        shadowRays[r + 4] = dy / distance;
+        shadowRays[r + 5] = dz / distance;
+        shadowRays[r + 6] = distance;
+        shadowIgnores[shadowCount] = ignore;
+        shadowLight[shadowCount] = contribution;
+        shadowCount++;
+    }
+
+    // Tests the shadow rays in sorted order; results are stored by queue position.
+    private void traceShadows() {
+        boolean sorted = sortKeys(shadowRays, SHADOW_STRIDE, shadowCount);
+        tracer.countShadowRays(shadowCount);
+        for (int i = 0; i < shadowCount; i++) {
+            int j = sorted ? order[i] : i;
+            int r = j * SHADOW_STRIDE;
+            shadowVisible[j] = !bvh.occluded(shadowRays[r], shadowRays[r + 1], shadowRays[r + 2], shadowRays[r + 3],
+                    shadowRays[r + 4], shadowRays[r + 5], shadowRays[r + 6], shadowIgnores[j], Tracer.EPSILON, hit);
+        }
+    }
+
+    // Finishes shading each path that hit something, then replaces the queue with the paths that go on.
+    private void reflect() {
+        double threshold = tracer.config().rouletteThreshold();
+        boolean sampleLights = tracer.samplesLights(lights);
+        int next = 0;
+        for (int p = 0; p < pathCount; p++) {
+            Intersection intersection = intersections[p];
+            if (intersection == null) {
+                continue;
+            }
+            Vec3 light = ambientLight[p];
+            for (int j = shadowStarts[p]; j < shadowStarts[p + 1]; j++) {
+                if (shadowVisible[j]) {
+                    light = light.add(shadowLight[j]);
+                }
+            }
+            Vec3 color = Tracer.shade(surfaceColors[p], light, sampleLights);
+            double r = color.x();
+            double g = color.y();
+            double b = color.z();
+            double reflectance = intersection.reflectance();
+            double throughput = throughputs[p];
+            int s = pathSamples[p] * 3;
+            sampleColors[s] += throughput * (1 - reflectance) * r;
+            sampleColors[s + 1] += throughput * (1 - reflectance) * g;
+            sampleColors[s + 2] += throughput * (1 - reflectance) * b;
+
+            throughput *= reflectance;
+            if (throughput <= 0) {
+                continue;
+            }
+            if (throughput < threshold) {
+                Vec3 point = intersection.point();
+                double survival = throughput / threshold;
+                if (sampler.random(point.x(), point.y(), point.z(), Tracer.ROULETTE_SAMPLE) >= survival) {
+                    continue;
+                }
+                throughput /= survival;
+            }
+            // Survivors are compacted in place; next <= p, so no unread path is overwritten.
+            pathSamples[next] = pathSamples[p];
+            throughputs[next] = throughput;
+            distances[next] = distances[p];
+            putRay(next, intersection.ray().reflect(intersection.point(), normals[p]));
+            next++;
+        }
+        Arrays.fill(intersections, 0, pathCount, null);
+        Arrays.fill(shadowLight, 0, shadowCount, null);
+        pathCount = next;
+    }
+
+    // Reorders the path queue by sort key, gathering into the spare arrays and swapping them in.
+    private void sortPaths() {
+        if (!sortKeys(rays, RAY_STRIDE, pathCount)) {
+            return;
+        }
+        if (spareSamples.length < pathSamples.length) {
+            spareSamples = new int[pathSamples.length];
+            spareRays = new double[rays.length];
+            spareThroughputs = new double[throughputs.length];
+            spareDistances = new double[distances.length];
+        }
+        for (int i = 0; i < pathCount; i++) {
+            int p = order[i];
+            spareSamples[i] = pathSamples[p];
+            System.arraycopy(rays, p * RAY_STRIDE, spareRays, i * RAY_STRIDE, RAY_STRIDE);
+            spareThroughputs[i] = throughputs[p];
+            spareDistances[i] = distances[p];
+        }
+        int[] samples = pathSamples;
+        pathSamples = spareSamples;
+        spareSamples = samples;
+        double[] swap = rays;
+        rays = spareRays;
+        spareRays = swap;
+        swap = throughputs;
+        throughputs = spareThroughputs;
+        spareThroughputs = swap;
+        swap = distances;
+        distances = spareDistances;
+        spareDistances = swap;
+    }
+
+    // Fills order with the queue positions of count rays sorted by a key whose high bits interleave the quantized
+    // direction and whose low bits interleave the origin quantized within the queue's bounding box. Returns false,
+    // leaving order unset, if the queue is too long for the key to hold its positions.
+    private boolean sortKeys(double[] queue, int stride, int count) {
+        if (count > 1 << INDEX_BITS) {
+            return false;
+        }
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], queue[i*stride + axis]);
+                max[axis] = Math.max(max[axis], queue[i*stride + axis]);
+            }
+        }
+        if (keys.length < count) {
+            keys = new long[Math.max(count, keys.length * 2)];
+            order = new int[keys.length];
+        }
+        int originCells = (1 << ORIGIN_BITS) - 1;
+        int directionCells = (1 << DIRECTION_BITS) - 1;
+        for (int i = 0; i < count; i++) {
+            int r = i * stride;
+            long origin = 0;
+            long direction = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                double extent = max[axis] - min[axis];
+                int o = extent > 0 ? (int) ((queue[r + axis] - min[axis]) / extent * originCells) : 0;
+                int d = (int) ((Math.max(-1, Math.min(1, queue[r + 3 + axis])) + 1) / 2 * directionCells);
+                origin |= spread(o, ORIGIN_BITS) << axis;
+                direction |= spread(d, DIRECTION_BITS) << axis;
+            }
+            keys[i] = (direction << (3 * ORIGIN_BITS + INDEX_BITS)) | (origin << INDEX_BITS) | i;
+        }
+        Arrays.sort(keys, 0, count);
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) (keys[i] & ((1 << INDEX_BITS) - 1));
+        }
+        return true;
+    }
+
+    // Moves bit i of value to bit 3i.
+    private static long spread(int value, int bits) {
+        long result = 0;
+        for (int bit = 0; bit < bits; bit++) {
+            result |= (long) ((value >> bit) & 1) << (3 * bit);
+        }
+        return result;
+    }
+
+    private Ray ray(int p) {
+        int r = p * RAY_STRIDE;
+        return new Ray(new Vec3(rays[r], rays[r + 1], rays[r + 2]), new Vec3(rays[r + 3], rays[r + 4], rays[r + 5]));
+    }
+
+    private void putRay(int p, Ray ray) {
+        int r = p * RAY_STRIDE;
+        rays[r] = ray.origin().x();
+        rays[r + 1] = ray.origin().y();
+        rays[r + 2] = ray.origin().z();
+        rays[r + 3] = ray.direction().x();
+        rays[r + 4] = ray.direction().y();
+        rays[r + 5] = ray.direction().z();
+    }
+
+    private void ensureSamples(int count) {
+        if (samplePixels.length < count * 2) {
+            samplePixels = new int[count * 2];
+            sampleColors = new double[count * 3];
+        }
+    }
+
+    private void ensurePaths(int count) {
+        if (pathSamples.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, pathSamples.length * 2);
+        pathSamples = Arrays.copyOf(pathSamples, capacity);
+        rays = Arrays.copyOf(rays, capacity * RAY_STRIDE);
+        throughputs = Arrays.copyOf(throughputs, capacity);
+        distances = Arrays.copyOf(distances, capacity);
+        hitT = new double[capacity];
+        hitU = new double[capacity];
+        hitV = new double[capacity];
+        hitFaces = new int[capacity];
+        hitInstances = new int[capacity];
+        intersections = new Intersection[capacity];
+        normals = new Vec3[capacity];
+        surfaceColors = new Vec3[capacity];
+        ambientLight = new Vec3[capacity];
+        shadowStarts = new int[capacity + 1];
+    }
+
+    private void ensureShadows(int count) {
+        if (shadowIgnores.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, shadowIgnores.length * 2);
+        shadowRays = Arrays.copyOf(shadowRays, capacity * SHADOW_STRIDE);
+        shadowIgnores = Arrays.copyOf(shadowIgnores, capacity);
+        shadowLight = Arrays.copyOf(shadowLight, capacity);
+        shadowVisible = new boolean[capacity];
+    }
+}
@@ -0,0 +1,438 @@
+package world;
+
+import com.github.jordanpottruff.jgml.Vec2;
+import com.github.jordanpottruff.jgml.Vec3;
+import common.Face;
+import common.LightSource;
+import common.Material;
+import common.Mesh;
+import common.Model;
+import common.Texture;
+import common.Vertex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// An immutable, array-backed snapshot of a world. Triangles are stored as one vertex plus two precomputed edges so that
+// intersection tests read nine contiguous doubles per face; shading attributes live in shared per-vertex arrays
+// addressed through an index buffer. The arrays returned by the accessors are shared and must not be modified.
+//
+// A world may instead be backed by a GeometryStore outside the heap (see SceneFile.map), in which case the array
+// accessors return null and the tables are read through store(). For an array-backed world the store wraps its arrays.
+public class CompiledWorld {
+
+    public static final int TRIANGLE_STRIDE = 9;
+
+    private final int faceCount;
+    // Per face: v1, v2 - v1 and v3 - v1.
+    private final double[] triangles;
+    // Per face: unit geometric normal.
+    private final double[] faceNormals;
+    // Per face: three vertex indices.
+    private final int[] indices;
+    private final int[] faceMaterials;
+    private final int[] faceModels;
+    // Per vertex attributes.
+    private final double[] positions;
+    private final double[] normals;
+    private final double[] colors;
+    private final double[] textureUVs;
+    private final double[] opacities;
+    private final double[] reflectances;
+    private final Material[] materials;
+    private final LightSource[] lights;
+    // Source models, or null when the world was not compiled from objects (e.g. loaded from a scene file).
+    private final Model[] models;
+    private final GeometryStore store;
+    // The model count given with a store, or -1 to find it from the faces.
+    private final int modelCount;
+
+    public CompiledWorld(double[] triangles, double[] faceNormals, int[] indices, int[] faceMaterials, int[] faceModels,
+                         double[] positions, double[] normals, double[] colors, double[] textureUVs,
+                         double[] opacities, double[] reflectances, Material[] materials, LightSource[] lights,
+                         Model[] models) {
+        this.faceCount = indices.length / 3;
+        this.triangles = triangles;
+        this.faceNormals = faceNormals;
+        this.indices = indices;
+        this.faceMaterials = faceMaterials;
+        this.faceModels = faceModels;
+        this.positions = positions;
+        this.normals = normals;
+        this.colors = colors;
+        this.textureUVs = textureUVs;
+        this.opacities = opacities;
+        this.reflectances = reflectances;
+        this.materials = materials;
+        this.lights = lights;
+        this.models = models;
+        this.store = new GeometryStore(GeometryStore.Doubles.wrap(triangles), GeometryStore.Doubles.wrap(faceNormals),
+                GeometryStore.Ints.wrap(indices), GeometryStore.Ints.wrap(faceMaterials),
+                GeometryStore.Ints.wrap(faceModels), GeometryStore.Doubles.wrap(positions),
+                GeometryStore.Doubles.wrap(normals), GeometryStore.Doubles.wrap(colors),
+                GeometryStore.Doubles.wrap(textureUVs), GeometryStore.Doubles.wrap(opacities),
+                GeometryStore.Doubles.wrap(reflectances), null, null);
+        this.modelCount = -1;
+    }
+
+    // A world whose faces and vertices are read from a store rather than held in arrays. The model count is given
+    // rather than found from the faces, so that nothing in the store is read to make the world.
+    public CompiledWorld(GeometryStore store, int modelCount, Material[] materials, LightSource[] lights) {
+        this.faceCount = (int) (store.indices().size() / 3);
+        this.triangles = null;
+        this.faceNormals = null;
+        this.indices = null;
+        this.faceMaterials = null;
+        this.faceModels = null;
+        this.positions = null;
+        this.normals = null;
+        this.colors = null;
+        this.textureUVs = null;
+        this.opacities = null;
+        this.reflectances = null;
+        this.materials = materials;
+        this.lights = lights;
+        this.models = null;
+        this.store = store;
+        this.modelCount = modelCount;
+    }
+
+    // Compiles the world's own models and lights. Instances are not included; they are compiled per shared model.
+    public static CompiledWorld compile(World world) {
+        return compile(world.models().toArray(new Model[0]), world.lights().toArray(new LightSource[0]));
+    }
+
+    // Compiles a single model, without lights, in its own object space.
+    public static CompiledWorld compile(Model model) {
+        return compile(new Model[]{model}, new LightSource[0]);
+    }
+
+    // Concatenates the models' meshes: vertex and index buffers are copied in bulk and materials are merged by value.
+    private static CompiledWorld compile(Model[] models, LightSource[] lights) {
+        int faceCount = 0;
+        int vertexCount = 0;
+        for (Model model: models) {
+            faceCount += model.mesh().triangleCount();
+            vertexCount += model.mesh().vertexCount();
+        }
+
+        int[] indices = new int[faceCount * 3];
+        int[] faceMaterials = new int[faceCount];
+        int[] faceModels = new int[faceCount];
+        double[] positions = new double[vertexCount * 3];
+        double[] normals = new double[vertexCount * 3];
+        double[] colors = new double[vertexCount * 3];
+        double[] textureUVs = new double[vertexCount * 2];
+        double[] opacities = new double[vertexCount];
+        double[] reflectances = new double[vertexCount];
+        Map<Material, Integer> materialIndices = new HashMap<>();
+        List<Material> materialList = new ArrayList<>();
+        int face = 0;
+        int vertex = 0;
+        for (int m = 0; m < models.length; m++) {
+            Mesh mesh = models[m].mesh();
+            int meshVertices = mesh.vertexCount();
+            System.arraycopy(mesh.positions(), 0, positions, vertex * 3, meshVertices * 3);
+            System.arraycopy(mesh.normals(), 0, normals, vertex * 3, meshVertices * 3);
+            System.arraycopy(mesh.colors(), 0, colors, vertex * 3, meshVertices * 3);
+            System.arraycopy(mesh.textureUVs(), 0, textureUVs, vertex * 2, meshVertices * 2);
+            System.arraycopy(mesh.opacities(), 0, opacities, vertex, meshVertices);
+            System.arraycopy(mesh.reflectances(), 0, reflectances, vertex, meshVertices);
+
+            int[] materialMap = new int[mesh.materials().length];
+            for (int i = 0; i < materialMap.length; i++) {
+                Material material = mesh.materials()[i];
+                Integer index = materialIndices.get(material);
+                if (index == null) {
+                    index = materialList.size();
+                    materialIndices.put(material, index);
+                    materialList.add(material);
+                }
+                materialMap[i] = index;
+            }
+
+            int[] meshIndices = mesh.indices();
+            for (int t = 0; t < mesh.triangleCount(); t++, face++) {
+                indices[face*3] = meshIndices[t*3] + vertex;
+                indices[face*3 + 1] = meshIndices[t*3 + 1] + vertex;
+                indices[face*3 + 2] = meshIndices[t*3 + 2] + vertex;
+                faceMaterials[face] = materialMap[mesh.materialIndex(t)];
+                faceModels[face] = m;
+            }
+            vertex += meshVertices;
+        }
+
+        double[] triangles = new double[faceCount * TRIANGLE_STRIDE];
+        double[] faceNormals = new double[faceCount * 3];
+        computeGeometry(indices, positions, triangles, faceNormals);
+
+        return new CompiledWorld(triangles, faceNormals, indices, faceMaterials, faceModels, positions, normals, colors,
+                textureUVs, opacities, reflectances, materialList.toArray(new Material[0]), lights, models);
+    }
+
+    static void computeGeometry(int[] indices, double[] positions, double[] triangles, double[] faceNormals) {
+        for (int f = 0; f < indices.length / 3; f++) {
+            int p1 = indices[f*3] * 3;
+            int p2 = indices[f*3 + 1] * 3;
+            int p3 = indices[f*3 + 2] * 3;
+            int t = f * TRIANGLE_STRIDE;
+            for (int axis = 0; axis < 3; axis++) {
+                triangles[t + axis] = positions[p1 + axis];
+                triangles[t + 3 + axis] = positions[p2 + axis] - positions[p1 + axis];
+                triangles[t + 6 + axis] = positions[p3 + axis] - positions[p1 + axis];
+            }
+            double nx = triangles[t + 4] * triangles[t + 8] - triangles[t + 5] * triangles[t + 7];
+            double ny = triangles[t + 5] * triangles[t + 6] - triangles[t + 3] * triangles[t + 8];
+            double nz = triangles[t + 3] * triangles[t + 7] - triangles[t + 4] * triangles[t + 6];
+            double length = Math.sqrt(nx*nx + ny*ny + nz*nz);
+            double scale = length > 0 ? 1.0 / length : 0.0;
+            faceNormals[f*3] = nx * scale;
+            faceNormals[f*3 + 1] = ny * scale;
+            faceNormals[f*3 + 2] = nz * scale;
+        }
+    }
+
+    // Returns a copy with its faces rearranged so that face i of the copy is face order[i] of this world. Vertex
+    // attributes, materials and models are shared with this world.
+    public CompiledWorld permute(int[] order) {
+        if (triangles == null) {
+            throw new IllegalStateException("Only an array-backed world can be reordered.");
+        }
+        double[] newTriangles = new double[triangles.length];
+        double[] newFaceNormals = new double[faceNormals.length];
+        int[] newIndices = new int[indices.length];
+        int[] newFaceMaterials = new int[faceCount];
+        int[] newFaceModels = new int[faceCount];
+        for (int f = 0; f < faceCount; f++) {
+            int from = order[f];
+            System.arraycopy(triangles, from * TRIANGLE_STRIDE, newTriangles, f * TRIANGLE_STRIDE, TRIANGLE_STRIDE);
+            System.arraycopy(faceNormals, from * 3, newFaceNormals, f * 3, 3);
+            System.arraycopy(indices, from * 3, newIndices, f * 3, 3);
+            newFaceMaterials[f] = faceMaterials[from];
+            newFaceModels[f] = faceModels[from];
+        }
+        return new CompiledWorld(newTriangles, newFaceNormals, newIndices, newFaceMaterials, newFaceModels, positions,
+                normals, colors, textureUVs, opacities, reflectances, materials, lights, models);
+    }
+
+    public int faceCount() {
+        return this.faceCount;
+    }
+
+    public int vertexCount() {
+        return (int) this.store.opacities().size();
+    }
+
+    // One more than the highest model index of any face.
+    public int modelCount() {
+        if (this.modelCount >= 0) {
+            return this.modelCount;
+        }
+        int modelCount = 0;
+        for (int faceModel : this.faceModels) {
+            modelCount = Math.max(modelCount, faceModel + 1);
+        }
+        return modelCount;
+    }
+
+    public boolean isStored() {
+        return this.triangles == null;
+    }
+
+    public GeometryStore store() {
+        return this.store;
+    }
+
+    // The array accessors below return null for a world backed by a store.
+
+    public double[] triangles() {
+        return this.triangles;
+    }
+
+    public double[] faceNormals() {
+        return this.faceNormals;
+    }
+
+    public int[] indices() {
+        return this.indices;
+    }
+
+    public int[] faceMaterials() {
+        return this.faceMaterials;
+    }
+
+    public int[] faceModels() {
+        return this.faceModels;
+    }
+
+    public double[] positions() {
+        return this.positions;
+    }
+
+    public double[] normals() {
+        return this.normals;
+    }
+
+    public double[] colors() {
+        return this.colors;
+    }
+
+    public double[] textureUVs() {
+        return this.textureUVs;
+    }
+
+    public double[] opacities() {
+        return this.opacities;
+    }
+
+    public double[] reflectances() {
+        return this.reflectances;
+    }
+
+    public Material[] materials() {
+        return this.materials;
+    }
+
+    public LightSource[] lights() {
+        return this.lights;
+    }
+
+    public Model[] models() {
+        return this.models;
+    }
+
+    // Creates a Face object for the given face. Faces are not stored; each call builds new objects.
+    public Face face(int face) {
+        Material material = material(face);
+        return new Face(vertex(index(face, 0)), vertex(index(face, 1)), vertex(index(face, 2)),
+                material.shine(), material.diffuseRatio(), material.specularRatio(), material.texture(),
+                material.textureOpacity());
+    }
+
+    private Vertex vertex(int index) {
+        GeometryStore.Doubles textureUVs = store.textureUVs();
+        return new Vertex(vec3(store.positions(), index), vec3(store.normals(), index), vec3(store.colors(), index),
+                store.opacities().get(index), store.reflectances().get(index),
+                new Vec2(textureUVs.get(index*2L), textureUVs.get(index*2L + 1)));
+    }
+
+    private static Vec3 vec3(GeometryStore.Doubles table, int index) {
+        return new Vec3(table.get(index*3L), table.get(index*3L + 1), table.get(index*3L + 2));
+    }
+
+    public Model model(int face) {
+        return this.models == null ? null : this.models[faceModels[face]];
+    }
+
+    public int modelIndex(int face) {
+        return this.faceModels != null ? this.faceModels[face] : this.store.faceModels().get(face);
+    }
+
+    public Material material(int face) {
+        return this.materials[faceMaterials != null ? faceMaterials[face] : store.faceMaterials().get(face)];
+    }
+
+    // The attribute lookups below interpolate with weights (1-u-v, u, v), matching Face. They read the arrays when
+    // there are any, and the store otherwise.
+
+    public Vec3 normal(int face, double u, double v) {
+        return normals != null ? lerp3(normals, face, u, v) : lerp3(store.normals(), face, u, v);
+    }
+
+    public Vec3 color(int face, double u, double v) {
+        return color(face, u, v, material(face), 0);
+    }
+
+    // The color of the face as if it had the given material.
+    public Vec3 color(int face, double u, double v, Material material) {
+        return color(face, u, v, material, 0);
+    }
+
+    // As above, with textures read from the mip level matching a pixel footprint of the given world-space width (0 for
+    // the full-resolution level).
+    public Vec3 color(int face, double u, double v, Material material, double footprint) {
+        Vec3 color = colors != null ? lerp3(colors, face, u, v) : lerp3(store.colors(), face, u, v);
+        // Use texture if available.
+        if (material.hasTexture()) {
+            Texture texture = material.texture();
+            GeometryStore.Doubles textureUVs = store.textureUVs();
+            double w = 1 - u - v;
+            long t1 = index(face, 0) * 2L;
+            long t2 = index(face, 1) * 2L;
+            long t3 = index(face, 2) * 2L;
+            double tu = w * textureUVs.get(t1) + u * textureUVs.get(t2) + v * textureUVs.get(t3);
+            double tv = w * textureUVs.get(t1 + 1) + u * textureUVs.get(t2 + 1) + v * textureUVs.get(t3 + 1);
+            double levelOfDetail = footprint > 0 ? texture.levelOfDetail(footprint, uvScale(face)) : 0;
+            int rgb = texture.rgb(tu, tv, levelOfDetail);
+            double textureOpacity = material.textureOpacity();
+            return new Vec3(Texture.red(rgb) * textureOpacity + color.x() * (1 - textureOpacity),
+                    Texture.green(rgb) * textureOpacity + color.y() * (1 - textureOpacity),
+                    Texture.blue(rgb) * textureOpacity + color.z() * (1 - textureOpacity));
+        }
+        return color;
+    }
+
+    // Texture coordinate units per world unit across the face: the square root of its UV area over its world area.
+    private double uvScale(int face) {
+        GeometryStore.Doubles triangles = store.triangles();
+        long t = (long) face * TRIANGLE_STRIDE;
+        double cx = triangles.get(t + 4) * triangles.get(t + 8) - triangles.get(t + 5) * triangles.get(t + 7);
+        double cy = triangles.get(t + 5) * triangles.get(t + 6) - triangles.get(t + 3) * triangles.get(t + 8);
+        double cz = triangles.get(t + 3) * triangles.get(t + 7) - triangles.get(t + 4) * triangles.get(t + 6);
+        double worldArea = Math.sqrt(cx*cx + cy*cy + cz*cz);
+        GeometryStore.Doubles textureUVs = store.textureUVs();
+        long t1 = index(face, 0) * 2L;
+        long t2 = index(face, 1) * 2L;
+        long t3 = index(face, 2) * 2L;
+        double uvArea = Math.abs((textureUVs.get(t2) - textureUVs.get(t1)) * (textureUVs.get(t3 + 1) - textureUVs.get(t1 + 1)) -
+                (textureUVs.get(t3) - textureUVs.get(t1)) * (textureUVs.get(t2 + 1) - textureUVs.get(t1 + 1)));
+        return worldArea > 0 ? Math.sqrt(uvArea / worldArea) : 0;
+    }
+
+    public double opacity(int face, double u, double v) {
+        return opacities != null ? lerp1(opacities, face, u, v) : lerp1(store.opacities(), face, u, v);
+    }
+
+    public double reflectance(int face, double u, double v) {
+        return reflectances != null ? lerp1(reflectances, face, u, v) : lerp1(store.reflectances(), face, u, v);
+    }
+
+    // One of the three vertex indices of a face.
+    private int index(int face, int corner) {
+        return indices != null ? indices[face*3 + corner] : store.indices().get(face*3L + corner);
+    }
+
+    private Vec3 lerp3(double[] attribute, int face, double u, double v) {
+        double w = 1 - u - v;
+        int i1 = indices[face*3] * 3;
+        int i2 = indices[face*3 + 1] * 3;
+        int i3 = indices[face*3 + 2] * 3;
+        return new Vec3(
+                w * attribute[i1] + u * attribute[i2] + v * attribute[i3],
+                w * attribute[i1 + 1] + u * attribute[i2 + 1] + v * attribute[i3 + 1],
+                w * attribute[i1 + 2] + u * attribute[i2 + 2] + v * attribute[i3 + 2]);
+    }
+
+    private Vec3 lerp3(GeometryStore.Doubles attribute, int face, double u, double v) {
+        double w = 1 - u - v;
+        long i1 = index(face, 0) * 3L;
+        long i2 = index(face, 1) * 3L;
+        long i3 = index(face, 2) * 3L;
+        return new Vec3(
+                w * attribute.get(i1) + u * attribute.get(i2) + v * attribute.get(i3),
+                w * attribute.get(i1 + 1) + u * attribute.get(i2 + 1) + v * attribute.get(i3 + 1),
+                w * attribute.get(i1 + 2) + u * attribute.get(i2 + 2) + v * attribute.get(i3 + 2));
+    }
+
+    private double lerp1(double[] attribute, int face, double u, double v) {
+        double w = 1 - u - v;
+        return w * attribute[indices[face*3]] + u * attribute[indices[face*3 + 1]] + v * attribute[indices[face*3 + 2]];
+    }
+
+    private double lerp1(GeometryStore.Doubles attribute, int face, double u, double v) {
+        double w = 1 - u - v;
+        return w * attribute.get(index(face, 0)) + u * attribute.get(index(face, 1)) + v * attribute.get(index(face, 2));
+    }
+}
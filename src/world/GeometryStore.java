@@ -0,0 +1,275 @@
+package world;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+// The tables of a CompiledWorld, and optionally of the hierarchy over it, as buffers addressed by long indices. A
+// compiled world's own store wraps its arrays, so its geometry stays on the Java heap. SceneFile.map gives a store
+// whose tables are mapped from the file, and toNative copies a store into direct memory. In those two cases the
+// geometry lives outside the heap, and the heap and the garbage collector only see the buffer objects, a few per table.
+// Tables larger than one buffer can hold are split into chunks of CHUNK_BYTES; an element never straddles two chunks.
+public class GeometryStore {
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_BYTES = 1L << CHUNK_BITS;
+
+    private final Doubles triangles;
+    private final Doubles faceNormals;
+    private final Ints indices;
+    private final Ints faceMaterials;
+    private final Ints faceModels;
+    private final Doubles positions;
+    private final Doubles normals;
+    private final Doubles colors;
+    private final Doubles textureUVs;
+    private final Doubles opacities;
+    private final Doubles reflectances;
+    // The hierarchy stored with the faces, laid out as in BVH, or null.
+    private final Doubles nodeBounds;
+    private final Ints nodes;
+
+    GeometryStore(Doubles triangles, Doubles faceNormals, Ints indices, Ints faceMaterials, Ints faceModels,
+                  Doubles positions, Doubles normals, Doubles colors, Doubles textureUVs, Doubles opacities,
+                  Doubles reflectances, Doubles nodeBounds, Ints nodes) {
+        this.triangles = triangles;
+        this.faceNormals = faceNormals;
+        this.indices = indices;
+        this.faceMaterials = faceMaterials;
+        this.faceModels = faceModels;
+        this.positions = positions;
+        this.normals = normals;
+        this.colors = colors;
+        this.textureUVs = textureUVs;
+        this.opacities = opacities;
+        this.reflectances = reflectances;
+        this.nodeBounds = nodeBounds;
+        this.nodes = nodes;
+    }
+
+    // This store's faces and vertices with the given hierarchy in place of its own.
+    public GeometryStore withHierarchy(Doubles nodeBounds, Ints nodes) {
+        return new GeometryStore(triangles, faceNormals, indices, faceMaterials, faceModels, positions, normals, colors,
+                textureUVs, opacities, reflectances, nodeBounds, nodes);
+    }
+
+    // Copies every table into direct memory.
+    public GeometryStore toNative() {
+        return new GeometryStore(triangles.toNative(), faceNormals.toNative(), indices.toNative(),
+                faceMaterials.toNative(), faceModels.toNative(), positions.toNative(), normals.toNative(),
+                colors.toNative(), textureUVs.toNative(), opacities.toNative(), reflectances.toNative(),
+                nodeBounds == null ? null : nodeBounds.toNative(), nodes == null ? null : nodes.toNative());
+    }
+
+    public boolean hasHierarchy() {
+        return this.nodes != null;
+    }
+
+    public Doubles triangles() {
+        return this.triangles;
+    }
+
+    public Doubles faceNormals() {
+        return this.faceNormals;
+    }
+
+    public Ints indices() {
+        return this.indices;
+    }
+
+    public Ints faceMaterials() {
+        return this.faceMaterials;
+    }
+
+    public Ints faceModels() {
+        return this.faceModels;
+    }
+
+    public Doubles positions() {
+        return this.positions;
+    }
+
+    public Doubles normals() {
+        return this.normals;
+    }
+
+    public Doubles colors() {
+        return this.colors;
+    }
+
+    public Doubles textureUVs() {
+        return this.textureUVs;
+    }
+
+    public Doubles opacities() {
+        return this.opacities;
+    }
+
+    public Doubles reflectances() {
+        return this.reflectances;
+    }
+
+    public Doubles nodeBounds() {
+        return this.nodeBounds;
+    }
+
+    public Ints nodes() {
+        return this.nodes;
+    }
+
+    private static int chunkCount(long bytes) {
+        return (int) ((bytes + CHUNK_BYTES - 1) >>> CHUNK_BITS);
+    }
+
+    private static ByteBuffer[] mapChunks(FileChannel channel, long offset, long bytes) throws IOException {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(bytes)];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            long start = (long) chunk << CHUNK_BITS;
+            chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start, Math.min(CHUNK_BYTES, bytes - start))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return chunks;
+    }
+
+    private static ByteBuffer allocateChunk(long bytes, int chunk) {
+        long start = (long) chunk << CHUNK_BITS;
+        return ByteBuffer.allocateDirect((int) Math.min(CHUNK_BYTES, bytes - start)).order(ByteOrder.nativeOrder());
+    }
+
+    public static class Doubles {
+
+        private static final int SHIFT = CHUNK_BITS - 3;
+        private static final long MASK = (1L << SHIFT) - 1;
+
+        private final DoubleBuffer[] chunks;
+        private final long size;
+
+        private Doubles(DoubleBuffer[] chunks, long size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        // The first length values of an array, without copying.
+        public static Doubles wrap(double[] values, int length) {
+            DoubleBuffer[] chunks = new DoubleBuffer[chunkCount((long) length * Double.BYTES)];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                int start = chunk << SHIFT;
+                chunks[chunk] = DoubleBuffer.wrap(values, start, (int) Math.min(1L << SHIFT, length - start)).slice();
+            }
+            return new Doubles(chunks, length);
+        }
+
+        public static Doubles wrap(double[] values) {
+            return wrap(values, values.length);
+        }
+
+        // Maps count little-endian doubles of a file starting at offset.
+        static Doubles map(FileChannel channel, long offset, long count) throws IOException {
+            ByteBuffer[] bytes = mapChunks(channel, offset, count * Double.BYTES);
+            DoubleBuffer[] chunks = new DoubleBuffer[bytes.length];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                chunks[chunk] = bytes[chunk].asDoubleBuffer();
+            }
+            return new Doubles(chunks, count);
+        }
+
+        public double get(long index) {
+            return chunks[(int) (index >>> SHIFT)].get((int) (index & MASK));
+        }
+
+        public long size() {
+            return this.size;
+        }
+
+        // Copies the values into buffer, which must have room for count of them, starting at index.
+        public void copyTo(long index, DoubleBuffer buffer, int count) {
+            while (count > 0) {
+                DoubleBuffer chunk = chunks[(int) (index >>> SHIFT)].duplicate();
+                int start = (int) (index & MASK);
+                int length = Math.min(count, chunk.limit() - start);
+                buffer.put(chunk.position(start).limit(start + length));
+                index += length;
+                count -= length;
+            }
+        }
+
+        Doubles toNative() {
+            long bytes = size * Double.BYTES;
+            DoubleBuffer[] copies = new DoubleBuffer[chunks.length];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                copies[chunk] = allocateChunk(bytes, chunk).asDoubleBuffer().put(chunks[chunk].duplicate().clear());
+            }
+            return new Doubles(copies, size);
+        }
+    }
+
+    public static class Ints {
+
+        private static final int SHIFT = CHUNK_BITS - 2;
+        private static final long MASK = (1L << SHIFT) - 1;
+
+        private final IntBuffer[] chunks;
+        private final long size;
+
+        private Ints(IntBuffer[] chunks, long size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        // The first length values of an array, without copying.
+        public static Ints wrap(int[] values, int length) {
+            IntBuffer[] chunks = new IntBuffer[chunkCount((long) length * Integer.BYTES)];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                int start = chunk << SHIFT;
+                chunks[chunk] = IntBuffer.wrap(values, start, (int) Math.min(1L << SHIFT, length - start)).slice();
+            }
+            return new Ints(chunks, length);
+        }
+
+        public static Ints wrap(int[] values) {
+            return wrap(values, values.length);
+        }
+
+        // Maps count little-endian ints of a file starting at offset.
+        static Ints map(FileChannel channel, long offset, long count) throws IOException {
+            ByteBuffer[] bytes = mapChunks(channel, offset, count * Integer.BYTES);
+            IntBuffer[] chunks = new IntBuffer[bytes.length];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                chunks[chunk] = bytes[chunk].asIntBuffer();
+            }
+            return new Ints(chunks, count);
+        }
+
+        public int get(long index) {
+            return chunks[(int) (index >>> SHIFT)].get((int) (index & MASK));
+        }
+
+        public long size() {
+            return this.size;
+        }
+
+        // Copies the values into buffer, which must have room for count of them, starting at index.
+        public void copyTo(long index, IntBuffer buffer, int count) {
+            while (count > 0) {
+                IntBuffer chunk = chunks[(int) (index >>> SHIFT)].duplicate();
+                int start = (int) (index & MASK);
+                int length = Math.min(count, chunk.limit() - start);
+                buffer.put(chunk.position(start).limit(start + length));
+                index += length;
+                count -= length;
+            }
+        }
+
+        Ints toNative() {
+            long bytes = size * Integer.BYTES;
+            IntBuffer[] copies = new IntBuffer[chunks.length];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                copies[chunk] = allocateChunk(bytes, chunk).asIntBuffer().put(chunks[chunk].duplicate().clear());
+            }
+            return new Ints(copies, size);
+        }
+    }
+}
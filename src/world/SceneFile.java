@@ -0,0 +1,342 @@
+package world;
+
+import com.github.jordanpottruff.jgml.Vec3;
+import common.Instance;
+import common.LightSource;
+import common.Material;
+import common.Model;
+import common.Texture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+// Versioned binary form of a CompiledWorld, optionally with a serialized acceleration structure. All values are
+// little-endian. After a fixed header of eight ints (magic, version, face, vertex, material, model, light and
+// acceleration node counts) come the tables below, each packed in the same layout as the in-memory arrays:
+//
+//   triangles (9 doubles/face), face normals (3/face), positions, normals, colors (3/vertex), texture UVs (2/vertex),
+//   opacities, reflectances (1/vertex), lights (7 doubles each), node bounds (6 doubles/node),
+//   indices (3 ints/face), face materials, face models (1 int/face), nodes (3 ints/node),
+//   materials (4 doubles, then an absolute texture path as an int byte length, -1 for none, and UTF-8 bytes padded
+//   to 8).
+//
+// Since the header fixes the size of every fixed-width table, each one is mapped and read in bulk with no parsing, or,
+// with map, left in place for the world and hierarchy to read from the mapped pages.
+public class SceneFile {
+
+    public static final int MAGIC = 0x43535452;
+    public static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int WRITE_CHUNK = 1 << 20;
+
+    private final CompiledWorld scene;
+    private final double[] nodeBounds;
+    private final int[] nodes;
+
+    private SceneFile(CompiledWorld scene, double[] nodeBounds, int[] nodes) {
+        this.scene = scene;
+        this.nodeBounds = nodeBounds;
+        this.nodes = nodes;
+    }
+
+    public CompiledWorld scene() {
+        return this.scene;
+    }
+
+    public boolean hasHierarchy() {
+        return this.nodes != null;
+    }
+
+    // Per node: minX, minY, minZ, maxX, maxY, maxZ.
+    public double[] hierarchyBounds() {
+        return this.nodeBounds;
+    }
+
+    // Three ints per node, in the layout of the hierarchy that wrote them.
+    public int[] hierarchyNodes() {
+        return this.nodes;
+    }
+
+    public static void convert(String worldFilename, String sceneFilename) throws Exception {
+        write(CompiledWorld.compile(World.createFromFile(worldFilename)), Path.of(sceneFilename));
+    }
+
+    // The format has no notion of instances, so each instance is written as a transformed copy of its model.
+    public static void write(World world, Path path) throws IOException {
+        Set<Model> models = world.models();
+        for (Instance instance: world.instances()) {
+            Model model = instance.model().transform(instance.transform());
+            models.add(instance.material().map(model::withMaterial).orElse(model));
+        }
+        write(CompiledWorld.compile(new World(models, world.lights())), path);
+    }
+
+    public static void write(CompiledWorld scene, Path path) throws IOException {
+        write(scene, (GeometryStore.Doubles) null, null, path);
+    }
+
+    public static void write(CompiledWorld scene, double[] nodeBounds, int[] nodes, Path path) throws IOException {
+        write(scene, nodes == null ? null : GeometryStore.Doubles.wrap(nodeBounds),
+                nodes == null ? null : GeometryStore.Ints.wrap(nodes), path);
+    }
+
+    // Writes a world, which may be backed by a store, with a hierarchy given as tables.
+    public static void write(CompiledWorld scene, GeometryStore.Doubles nodeBounds, GeometryStore.Ints nodes, Path path)
+            throws IOException {
+        int nodeCount = nodes == null ? 0 : (int) (nodes.size() / 3);
+        int modelCount = scene.modelCount();
+        GeometryStore store = scene.store();
+        LightSource[] lights = scene.lights();
+        double[] lightTable = new double[lights.length * 7];
+        for (int i = 0; i < lights.length; i++) {
+            put(lightTable, i*7, lights[i].position());
+            put(lightTable, i*7 + 3, lights[i].color());
+            lightTable[i*7 + 6] = lights[i].intensity();
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(scene.faceCount()).putInt(scene.vertexCount())
+                    .putInt(scene.materials().length).putInt(modelCount).putInt(lights.length).putInt(nodeCount);
+            writeDoubles(channel, buffer, store.triangles());
+            writeDoubles(channel, buffer, store.faceNormals());
+            writeDoubles(channel, buffer, store.positions());
+            writeDoubles(channel, buffer, store.normals());
+            writeDoubles(channel, buffer, store.colors());
+            writeDoubles(channel, buffer, store.textureUVs());
+            writeDoubles(channel, buffer, store.opacities());
+            writeDoubles(channel, buffer, store.reflectances());
+            writeDoubles(channel, buffer, GeometryStore.Doubles.wrap(lightTable));
+            if (nodeCount > 0) {
+                writeDoubles(channel, buffer, nodeBounds);
+            }
+            writeInts(channel, buffer, store.indices());
+            writeInts(channel, buffer, store.faceMaterials());
+            writeInts(channel, buffer, store.faceModels());
+            if (nodeCount > 0) {
+                writeInts(channel, buffer, nodes);
+            }
+            pad(buffer);
+            for (Material material: scene.materials()) {
+                flushIfFull(channel, buffer, 40);
+                buffer.putDouble(material.shine()).putDouble(material.diffuseRatio())
+                        .putDouble(material.specularRatio()).putDouble(material.textureOpacity());
+                if (material.texture() == null) {
+                    buffer.putInt(-1);
+                } else {
+                    byte[] texturePath = material.texture().absolutePath().getBytes(StandardCharsets.UTF_8);
+                    buffer.putInt(texturePath.length);
+                    for (byte b: texturePath) {
+                        flushIfFull(channel, buffer, 1);
+                        buffer.put(b);
+                    }
+                }
+                pad(buffer);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    public static SceneFile open(Path path) throws IOException {
+        return read(path, false);
+    }
+
+    // Opens a scene file without copying its tables: the world's faces and vertices and the hierarchy are read from
+    // the mapped file through a GeometryStore, so heap use does not grow with the scene. Only the lights and materials
+    // are copied. The mapping stays valid until the returned objects are garbage collected.
+    public static SceneFile map(Path path) throws IOException {
+        return read(path, true);
+    }
+
+    private static SceneFile read(Path path, boolean mapped) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = map(channel, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("FILE_ERROR: " + path + " is not a scene file.");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("FILE_ERROR: Unsupported scene file version " + version + ", expected " + VERSION + ".");
+            }
+            int faceCount = header.getInt();
+            int vertexCount = header.getInt();
+            int materialCount = header.getInt();
+            int modelCount = header.getInt();
+            int lightCount = header.getInt();
+            int nodeCount = header.getInt();
+
+            long[] offset = {HEADER_BYTES};
+            if (mapped) {
+                GeometryStore.Doubles triangles = mapDoubles(channel, offset, (long) faceCount * CompiledWorld.TRIANGLE_STRIDE);
+                GeometryStore.Doubles faceNormals = mapDoubles(channel, offset, faceCount * 3L);
+                GeometryStore.Doubles positions = mapDoubles(channel, offset, vertexCount * 3L);
+                GeometryStore.Doubles normals = mapDoubles(channel, offset, vertexCount * 3L);
+                GeometryStore.Doubles colors = mapDoubles(channel, offset, vertexCount * 3L);
+                GeometryStore.Doubles textureUVs = mapDoubles(channel, offset, vertexCount * 2L);
+                GeometryStore.Doubles opacities = mapDoubles(channel, offset, vertexCount);
+                GeometryStore.Doubles reflectances = mapDoubles(channel, offset, vertexCount);
+                LightSource[] lights = lights(readDoubles(channel, offset, lightCount * 7));
+                GeometryStore.Doubles nodeBounds = mapDoubles(channel, offset, nodeCount * 6L);
+                GeometryStore.Ints indices = mapInts(channel, offset, faceCount * 3L);
+                GeometryStore.Ints faceMaterials = mapInts(channel, offset, faceCount);
+                GeometryStore.Ints faceModels = mapInts(channel, offset, faceCount);
+                GeometryStore.Ints nodes = mapInts(channel, offset, nodeCount * 3L);
+                Material[] materials = materials(channel, align(offset[0]), materialCount, directory);
+
+                GeometryStore store = new GeometryStore(triangles, faceNormals, indices, faceMaterials, faceModels,
+                        positions, normals, colors, textureUVs, opacities, reflectances,
+                        nodeCount == 0 ? null : nodeBounds, nodeCount == 0 ? null : nodes);
+                return new SceneFile(new CompiledWorld(store, modelCount, materials, lights), null, null);
+            }
+            double[] triangles = readDoubles(channel, offset, faceCount * CompiledWorld.TRIANGLE_STRIDE);
+            double[] faceNormals = readDoubles(channel, offset, faceCount * 3);
+            double[] positions = readDoubles(channel, offset, vertexCount * 3);
+            double[] normals = readDoubles(channel, offset, vertexCount * 3);
+            double[] colors = readDoubles(channel, offset, vertexCount * 3);
+            double[] textureUVs = readDoubles(channel, offset, vertexCount * 2);
+            double[] opacities = readDoubles(channel, offset, vertexCount);
+            double[] reflectances = readDoubles(channel, offset, vertexCount);
+            LightSource[] lights = lights(readDoubles(channel, offset, lightCount * 7));
+            double[] nodeBounds = readDoubles(channel, offset, nodeCount * 6);
+            int[] indices = readInts(channel, offset, faceCount * 3);
+            int[] faceMaterials = readInts(channel, offset, faceCount);
+            int[] faceModels = readInts(channel, offset, faceCount);
+            int[] nodes = readInts(channel, offset, nodeCount * 3);
+            Material[] materials = materials(channel, align(offset[0]), materialCount, directory);
+
+            CompiledWorld scene = new CompiledWorld(triangles, faceNormals, indices, faceMaterials, faceModels, positions,
+                    normals, colors, textureUVs, opacities, reflectances, materials, lights, null);
+            return nodeCount == 0 ? new SceneFile(scene, null, null) : new SceneFile(scene, nodeBounds, nodes);
+        }
+    }
+
+    // Reads the material table. Texture paths are written absolute; a relative one, from a file written before that, is
+    // taken relative to the directory holding the scene file.
+    private static Material[] materials(FileChannel channel, long offset, int materialCount, Path directory)
+            throws IOException {
+        ByteBuffer materialTable = map(channel, offset, channel.size() - offset);
+        Material[] materials = new Material[materialCount];
+        for (int i = 0; i < materialCount; i++) {
+            double shine = materialTable.getDouble();
+            double diffuseRatio = materialTable.getDouble();
+            double specularRatio = materialTable.getDouble();
+            double textureOpacity = materialTable.getDouble();
+            int pathLength = materialTable.getInt();
+            Texture texture = null;
+            if (pathLength >= 0) {
+                byte[] texturePath = new byte[pathLength];
+                materialTable.get(texturePath);
+                texture = new Texture(directory.resolve(new String(texturePath, StandardCharsets.UTF_8)).toString());
+            }
+            materialTable.position((int) align(materialTable.position()));
+            materials[i] = new Material(shine, diffuseRatio, specularRatio, texture, textureOpacity);
+        }
+        return materials;
+    }
+
+    private static LightSource[] lights(double[] lightTable) {
+        LightSource[] lights = new LightSource[lightTable.length / 7];
+        for (int i = 0; i < lights.length; i++) {
+            int l = i * 7;
+            lights[i] = new LightSource(new Vec3(lightTable[l], lightTable[l + 1], lightTable[l + 2]),
+                    new Vec3(lightTable[l + 3], lightTable[l + 4], lightTable[l + 5]), lightTable[l + 6]);
+        }
+        return lights;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static double[] readDoubles(FileChannel channel, long[] offset, int count) throws IOException {
+        double[] values = new double[count];
+        if (count > 0) {
+            map(channel, offset[0], (long) count * Double.BYTES).asDoubleBuffer().get(values);
+            offset[0] += (long) count * Double.BYTES;
+        }
+        return values;
+    }
+
+    private static int[] readInts(FileChannel channel, long[] offset, int count) throws IOException {
+        int[] values = new int[count];
+        if (count > 0) {
+            map(channel, offset[0], (long) count * Integer.BYTES).asIntBuffer().get(values);
+            offset[0] += (long) count * Integer.BYTES;
+        }
+        return values;
+    }
+
+    private static GeometryStore.Doubles mapDoubles(FileChannel channel, long[] offset, long count) throws IOException {
+        GeometryStore.Doubles values = GeometryStore.Doubles.map(channel, offset[0], count);
+        offset[0] += count * Double.BYTES;
+        return values;
+    }
+
+    private static GeometryStore.Ints mapInts(FileChannel channel, long[] offset, long count) throws IOException {
+        GeometryStore.Ints values = GeometryStore.Ints.map(channel, offset[0], count);
+        offset[0] += count * Integer.BYTES;
+        return values;
+    }
+
+    private static void writeDoubles(FileChannel channel, ByteBuffer buffer, GeometryStore.Doubles values) throws IOException {
+        long written = 0;
+        while (written < values.size()) {
+            flushIfFull(channel, buffer, Double.BYTES);
+            int count = (int) Math.min(values.size() - written, buffer.remaining() / Double.BYTES);
+            values.copyTo(written, buffer.asDoubleBuffer(), count);
+            buffer.position(buffer.position() + count * Double.BYTES);
+            written += count;
+        }
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, GeometryStore.Ints values) throws IOException {
+        long written = 0;
+        while (written < values.size()) {
+            flushIfFull(channel, buffer, Integer.BYTES);
+            int count = (int) Math.min(values.size() - written, buffer.remaining() / Integer.BYTES);
+            values.copyTo(written, buffer.asIntBuffer(), count);
+            buffer.position(buffer.position() + count * Integer.BYTES);
+            written += count;
+        }
+    }
+
+    private static void flushIfFull(FileChannel channel, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() < needed) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Pads with zeros to the next multiple of eight bytes. Flushes always happen at multiples of eight, so the buffer
+    // position has the same alignment as the file position.
+    private static void pad(ByteBuffer buffer) {
+        while (buffer.position() % 8 != 0) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static void put(double[] array, int index, Vec3 value) {
+        array[index] = value.x();
+        array[index + 1] = value.y();
+        array[index + 2] = value.z();
+    }
+}
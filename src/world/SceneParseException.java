@@ -0,0 +1,23 @@
+package world;
+
+public class SceneParseException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int line;
+    private final int column;
+
+    public SceneParseException(String message, int line, int column) {
+        super("FILE_ERROR: line " + line + ", column " + column + ": " + message);
+        this.line = line;
+        this.column = column;
+    }
+
+    public int line() {
+        return this.line;
+    }
+
+    public int column() {
+        return this.column;
+    }
+}
@@ -0,0 +1,384 @@
+package world;
+
+import com.github.jordanpottruff.jgml.Vec3;
+import common.LightSource;
+import common.Material;
+import common.Mesh;
+import common.Model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+// Streaming parser for the text world format:
+//
+//   WORLD
+//     MODEL
+//       FACE
+//         [x, y, z], [nx, ny, nz], [r, g, b], opacity, reflectance;   (three vertices per face)
+//     END_MODEL
+//     LIGHT
+//       [x, y, z], [r, g, b], intensity;
+//     END_LIGHT
+//   END_WORLD
+//
+// Whitespace is insignificant and '#' starts a comment that runs to the end of the line. The file is read through a
+// fixed buffer and tokenized byte by byte; keywords and numbers are matched in place without creating strings.
+public class WorldParser implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int EOF = -1;
+    private static final byte[] WORLD = keyword("WORLD");
+    private static final byte[] END_WORLD = keyword("END_WORLD");
+    private static final byte[] MODEL = keyword("MODEL");
+    private static final byte[] END_MODEL = keyword("END_MODEL");
+    private static final byte[] FACE = keyword("FACE");
+    private static final byte[] LIGHT = keyword("LIGHT");
+    private static final byte[] END_LIGHT = keyword("END_LIGHT");
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // Largest mantissa that a double holds exactly.
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+    private int position;
+    private int limit;
+    private final byte[] keywordBuffer = new byte[32];
+    private final StringBuilder numberText = new StringBuilder();
+    private final double[] vertex = new double[Mesh.VERTEX_SIZE];
+    private int current;
+    private int line = 1;
+    private int column = 1;
+    private int tokenLine;
+    private int tokenColumn;
+    private long bytesRead;
+    private long parseNanos;
+
+    public WorldParser(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.bytes = new byte[BUFFER_SIZE];
+        this.buffer = ByteBuffer.wrap(bytes);
+        this.current = fetch();
+    }
+
+    public static World parse(String filename) throws Exception {
+        try (WorldParser parser = new WorldParser(Path.of(filename))) {
+            return parser.parse();
+        }
+    }
+
+    public World parse() throws SceneParseException, IOException {
+        long start = System.nanoTime();
+        Set<Model> models = new HashSet<>();
+        Set<LightSource> lights = new HashSet<>();
+
+        expectKeyword(WORLD);
+        while (true) {
+            byte[] keyword = nextKeyword(MODEL, LIGHT, END_WORLD);
+            if (keyword == MODEL) {
+                models.add(parseModel());
+            } else if (keyword == LIGHT) {
+                lights.add(parseLight());
+            } else {
+                break;
+            }
+        }
+
+        parseNanos = System.nanoTime() - start;
+        return new World(models, lights);
+    }
+
+    public Stats stats() {
+        return new Stats(bytesRead, parseNanos / 1e6);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Vertices repeated across a model's faces are stored once in its mesh.
+    private Model parseModel() throws SceneParseException, IOException {
+        Mesh.Builder builder = new Mesh.Builder(Material.DEFAULT);
+        expectKeyword(FACE);
+        do {
+            int v1 = builder.addUniqueVertex(parseVertex());
+            int v2 = builder.addUniqueVertex(parseVertex());
+            int v3 = builder.addUniqueVertex(parseVertex());
+            builder.addTriangle(v1, v2, v3);
+        } while (nextKeyword(FACE, END_MODEL) == FACE);
+        return new Model(builder.build());
+    }
+
+    // Reads one vertex into the shared scratch array, in the layout of Mesh.VERTEX_SIZE.
+    private double[] parseVertex() throws SceneParseException, IOException {
+        parseVec3(vertex, 0);
+        expect(',');
+        parseVec3(vertex, 3);
+        expect(',');
+        parseVec3(vertex, 6);
+        expect(',');
+        vertex[9] = parseNumber();
+        expect(',');
+        vertex[10] = parseNumber();
+        expect(';');
+        double length = Math.sqrt(vertex[3]*vertex[3] + vertex[4]*vertex[4] + vertex[5]*vertex[5]);
+        vertex[3] /= length;
+        vertex[4] /= length;
+        vertex[5] /= length;
+        vertex[11] = 0;
+        vertex[12] = 0;
+        return vertex;
+    }
+
+    private LightSource parseLight() throws SceneParseException, IOException {
+        Vec3 position = parseVec3();
+        expect(',');
+        Vec3 color = parseVec3();
+        expect(',');
+        double intensity = parseNumber();
+        expect(';');
+        expectKeyword(END_LIGHT);
+        return new LightSource(position, color, intensity);
+    }
+
+    private Vec3 parseVec3() throws SceneParseException, IOException {
+        double[] xyz = new double[3];
+        parseVec3(xyz, 0);
+        return new Vec3(xyz[0], xyz[1], xyz[2]);
+    }
+
+    private void parseVec3(double[] out, int offset) throws SceneParseException, IOException {
+        expect('[');
+        out[offset] = parseNumber();
+        expect(',');
+        out[offset + 1] = parseNumber();
+        expect(',');
+        out[offset + 2] = parseNumber();
+        expect(']');
+    }
+
+    // Parses [-]digits[.digits][(e|E)[+|-]digits]. Values whose decimal mantissa and exponent are small enough are
+    // computed exactly from a long and a power of ten; anything else falls back to Double.parseDouble.
+    private double parseNumber() throws SceneParseException, IOException {
+        skipWhitespace();
+        markToken();
+        numberText.setLength(0);
+        boolean negative = false;
+        if (current == '-') {
+            negative = true;
+            consumeNumberChar();
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean exact = true;
+        while (isDigit(current)) {
+            if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                mantissa = mantissa * 10 + (current - '0');
+            } else {
+                exact = false;
+            }
+            digits++;
+            consumeNumberChar();
+        }
+        if (current == '.') {
+            consumeNumberChar();
+            while (isDigit(current)) {
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (current - '0');
+                    scale--;
+                } else {
+                    exact = false;
+                }
+                digits++;
+                consumeNumberChar();
+            }
+        }
+        if (digits == 0) {
+            throw error("Expected a number");
+        }
+        if (current == 'e' || current == 'E') {
+            consumeNumberChar();
+            boolean negativeExponent = false;
+            if (current == '+' || current == '-') {
+                negativeExponent = current == '-';
+                consumeNumberChar();
+            }
+            if (!isDigit(current)) {
+                throw error("Expected an exponent");
+            }
+            int exponent = 0;
+            while (isDigit(current)) {
+                exponent = Math.min(exponent * 10 + (current - '0'), 100000);
+                consumeNumberChar();
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+
+        if (exact && scale >= -22 && scale <= 22) {
+            double value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(numberText.toString());
+    }
+
+    private void consumeNumberChar() throws IOException {
+        numberText.append((char) current);
+        advance();
+    }
+
+    private void expect(char c) throws SceneParseException, IOException {
+        skipWhitespace();
+        markToken();
+        if (current != c) {
+            throw error("Expected '" + c + "'");
+        }
+        advance();
+    }
+
+    private void expectKeyword(byte[] keyword) throws SceneParseException, IOException {
+        nextKeyword(keyword);
+    }
+
+    // Reads the next keyword and returns whichever of the options it matches (by reference).
+    private byte[] nextKeyword(byte[]... options) throws SceneParseException, IOException {
+        skipWhitespace();
+        markToken();
+        int length = 0;
+        while ((current >= 'A' && current <= 'Z') || current == '_') {
+            if (length < keywordBuffer.length) {
+                keywordBuffer[length] = (byte) current;
+            }
+            length++;
+            advance();
+        }
+        for (byte[] option: options) {
+            if (matches(option, length)) {
+                return option;
+            }
+        }
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < options.length; i++) {
+            expected.append(i == 0 ? "" : i == options.length - 1 ? " or " : ", ");
+            expected.append(new String(options[i], StandardCharsets.US_ASCII));
+        }
+        throw error("Expected keyword " + expected, length);
+    }
+
+    private boolean matches(byte[] keyword, int length) {
+        if (keyword.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (keywordBuffer[i] != keyword[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (true) {
+            if (current == ' ' || current == '\t' || current == '\r' || current == '\n') {
+                advance();
+            } else if (current == '#') {
+                while (current != '\n' && current != EOF) {
+                    advance();
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void markToken() {
+        tokenLine = line;
+        tokenColumn = column;
+    }
+
+    private void advance() throws IOException {
+        if (current == '\n') {
+            line++;
+            column = 1;
+        } else if (current != EOF) {
+            column++;
+        }
+        current = fetch();
+    }
+
+    private int fetch() throws IOException {
+        if (position == limit) {
+            buffer.clear();
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            if (read < 0) {
+                position = limit = 0;
+                return EOF;
+            }
+            position = 0;
+            limit = read;
+            bytesRead += read;
+        }
+        return bytes[position++] & 0xFF;
+    }
+
+    private SceneParseException error(String message) {
+        String found = current == EOF ? "end of file" : "'" + (char) current + "'";
+        return new SceneParseException(message + ", got " + found, tokenLine, tokenColumn);
+    }
+
+    private SceneParseException error(String message, int keywordLength) {
+        if (keywordLength == 0) {
+            return error(message);
+        }
+        String found = new String(keywordBuffer, 0, Math.min(keywordLength, keywordBuffer.length), StandardCharsets.US_ASCII);
+        return new SceneParseException(message + ", got '" + found + "'", tokenLine, tokenColumn);
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static byte[] keyword(String keyword) {
+        return keyword.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static class Stats {
+        private final long bytes;
+        private final double millis;
+
+        public Stats(long bytes, double millis) {
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        public long bytes() {
+            return this.bytes;
+        }
+
+        public double millis() {
+            return this.millis;
+        }
+
+        public double megabytesPerSecond() {
+            return millis <= 0 ? 0 : (bytes / 1e6) / (millis / 1e3);
+        }
+
+        public String toString() {
+            return String.format("%.2f MB in %.1f ms (%.1f MB/s)", bytes / 1e6, millis, megabytesPerSecond());
+        }
+    }
+}